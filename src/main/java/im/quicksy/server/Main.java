@@ -18,12 +18,30 @@ package im.quicksy.server;
 
 import static spark.Spark.*;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import im.quicksy.server.configuration.Configuration;
 import im.quicksy.server.controller.*;
+import im.quicksy.server.directory.DirectoryIndex;
+import im.quicksy.server.directory.RegisteredNumberFilter;
+import im.quicksy.server.metrics.Metrics;
+import im.quicksy.server.synchronization.ChangeNotifier;
+import im.quicksy.server.synchronization.ResultCache;
+import im.quicksy.server.throttle.ConcurrencyLimiter;
+import im.quicksy.server.throttle.LimiterSnapshot;
+import im.quicksy.server.xmpp.IQExecutor;
 import im.quicksy.server.xmpp.synchronization.Entry;
 import im.quicksy.server.xmpp.synchronization.PhoneBook;
+import im.quicksy.server.xmpp.synchronization.PhoneBookChanged;
+import im.quicksy.server.xmpp.synchronization.compact.CompactPhoneBook;
+import im.quicksy.server.xmpp.synchronization.delta.Delta;
+import im.quicksy.server.xmpp.synchronization.hashed.HashedPhoneBook;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +54,7 @@ import rocks.xmpp.extensions.component.accept.ExternalComponent;
 import rocks.xmpp.extensions.disco.ServiceDiscoveryManager;
 import rocks.xmpp.extensions.disco.model.info.Identity;
 import rocks.xmpp.extensions.muc.model.Muc;
+import spark.Service;
 import spark.TemplateEngine;
 import spark.template.freemarker.FreeMarkerEngine;
 import sun.misc.Signal;
@@ -85,6 +104,7 @@ public class Main {
         }
 
         logConfigurationInfo();
+        applyLimits();
 
         if (commandLine.hasOption("v")) {
             Properties properties = System.getProperties();
@@ -98,6 +118,7 @@ public class Main {
                         if (Configuration.reload()) {
                             LOGGER.info("reloaded config");
                             logConfigurationInfo();
+                            applyLimits();
                         } else {
                             LOGGER.error("unable to reload config. config file has moved");
                         }
@@ -106,6 +127,9 @@ public class Main {
                     }
                 });
 
+        setupDirectoryIndex();
+        setupMetrics();
+        setupLimiterSnapshot();
         setupWebServer();
         setupXmppComponent(commandLine.hasOption("x"));
     }
@@ -130,12 +154,155 @@ public class Main {
                         + Configuration.getInstance().getAccountInactivity());
     }
 
+    private static void applyLimits() {
+        try {
+            final long start = System.nanoTime();
+            AuthenticationController.applyLimits();
+            PasswordController.applyLimits();
+            SynchronizationController.applyLimits();
+            LOGGER.info(
+                    "applied throttle limits in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                            + "ms");
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to apply throttle limits - " + e.getMessage());
+        }
+    }
+
+    private static void setupDirectoryIndex() {
+        final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("directory-refresh")
+                                .setDaemon(true)
+                                .build());
+        executor.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        final boolean inMemory =
+                                Configuration.getInstance().getSynchronization().isDirectoryIndex();
+                        DirectoryIndex.getInstance().setEnabled(inMemory);
+                        if (inMemory) {
+                            DirectoryIndex.getInstance().reload();
+                        } else {
+                            RegisteredNumberFilter.getInstance().reload();
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Unable to load directory index - " + e.getMessage());
+                    }
+                },
+                0,
+                Configuration.getInstance().getDirectoryRefreshInterval().toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void setupMetrics() {
+        final Metrics metrics = Metrics.getInstance();
+        final ResultCache results = SynchronizationController.getResultCache();
+        metrics.counter(
+                "quicksy_result_cache_hits_total", "Result cache hits", results::getHitCount);
+        metrics.counter(
+                "quicksy_result_cache_misses_total", "Result cache misses", results::getMissCount);
+        metrics.counter(
+                "quicksy_result_cache_evictions_total",
+                "Result cache evictions",
+                results::getEvictionCount);
+        metrics.gauge("quicksy_result_cache_size", "Cached results", results::size);
+        final ConcurrencyLimiter limiter = SynchronizationController.getDatabaseLimiter();
+        metrics.gauge(
+                "quicksy_database_concurrency_limit",
+                "Concurrent database lookups currently allowed",
+                limiter::getLimit);
+        metrics.gauge(
+                "quicksy_database_in_flight", "Database lookups in progress", limiter::getInFlight);
+        metrics.counter(
+                "quicksy_database_rejected_total",
+                "Database lookups rejected by the concurrency limit",
+                limiter::getRejectedCount);
+        if (Configuration.getInstance().getSynchronization().isPush()) {
+            final ChangeNotifier notifier = ChangeNotifier.getInstance();
+            metrics.gauge(
+                    "quicksy_push_subscribers",
+                    "Users subscribed to change notifications",
+                    notifier::getSubscriberCount);
+            metrics.gauge(
+                    "quicksy_push_phone_numbers",
+                    "Phone numbers watched for change notifications",
+                    notifier::getPhoneNumberCount);
+            metrics.counter(
+                    "quicksy_push_sent_total", "Change notifications sent", notifier::getSentCount);
+        }
+    }
+
+    private static void setupLimiterSnapshot() {
+        final Configuration.Throttle throttle = Configuration.getInstance().getThrottle();
+        final File file = throttle.getSnapshotFile().orElse(null);
+        if (file == null) {
+            return;
+        }
+        final LimiterSnapshot snapshot = new LimiterSnapshot(file);
+        AuthenticationController.addLimiters(snapshot);
+        PasswordController.addLimiters(snapshot);
+        SynchronizationController.addLimiters(snapshot);
+        try {
+            final long start = System.nanoTime();
+            final int count = snapshot.restore();
+            LOGGER.info(
+                    "restored "
+                            + count
+                            + " limiter entries from "
+                            + file
+                            + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                            + "ms");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Unable to restore limiters from " + file + " - " + e.getMessage());
+        }
+        final Runnable save =
+                () -> {
+                    try {
+                        final long start = System.nanoTime();
+                        final int count = snapshot.save();
+                        LOGGER.debug(
+                                "saved "
+                                        + count
+                                        + " limiter entries in "
+                                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                                        + "ms");
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.error("Unable to save limiters to " + file + " - " + e.getMessage());
+                    }
+                };
+        final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("limiter-snapshot")
+                                .setDaemon(true)
+                                .build());
+        executor.scheduleWithFixedDelay(
+                save,
+                throttle.getSnapshotInterval().toMillis(),
+                throttle.getSnapshotInterval().toMillis(),
+                TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(save, "limiter-snapshot"));
+    }
+
     private static void setupWebServer() {
         ipAddress(Configuration.getInstance().getWeb().getHost());
         port(Configuration.getInstance().getWeb().getPort());
 
         final TemplateEngine templateEngine = new FreeMarkerEngine();
 
+        final Configuration.Web web = Configuration.getInstance().getWeb();
+        if (web.isMetrics() && web.getMetricsPort() > 0) {
+            Service.ignite()
+                    .ipAddress(web.getMetricsHost())
+                    .port(web.getMetricsPort())
+                    .get("/metrics", MetricsController.metrics);
+        } else if (web.isMetrics()) {
+            get("/metrics", MetricsController.metrics);
+        }
+
         path(
                 "/api",
                 () -> {
@@ -193,7 +360,14 @@ public class Main {
             builder.debugger(ConsoleDebugger.class);
         }
 
-        builder.extensions(Extension.of(Entry.class, PhoneBook.class));
+        builder.extensions(
+                Extension.of(
+                        Entry.class,
+                        PhoneBook.class,
+                        Delta.class,
+                        HashedPhoneBook.class,
+                        CompactPhoneBook.class,
+                        PhoneBookChanged.class));
 
         final ExternalComponent externalComponent =
                 ExternalComponent.create(
@@ -206,12 +380,38 @@ public class Main {
         ServiceDiscoveryManager serviceDiscoveryManager =
                 externalComponent.getManager(ServiceDiscoveryManager.class);
         serviceDiscoveryManager.addFeature(PhoneBook.NAMESPACE);
+        serviceDiscoveryManager.addFeature(Delta.NAMESPACE);
+        serviceDiscoveryManager.addFeature(HashedPhoneBook.NAMESPACE);
+        serviceDiscoveryManager.addFeature(CompactPhoneBook.NAMESPACE);
         serviceDiscoveryManager.addIdentity(Identity.storeGeneric());
         externalComponent.disableFeature(Muc.NAMESPACE);
         externalComponent.disableFeature(Socks5ByteStream.NAMESPACE);
 
+        final IQExecutor iqExecutor =
+                new IQExecutor(
+                        externalComponent,
+                        Configuration.getInstance().getXmpp().getThreads(),
+                        Configuration.getInstance().getXmpp().getQueueSize(),
+                        Configuration.getInstance().getXmpp().getSlowRequestThreshold());
+        externalComponent.addIQHandler(
+                PhoneBook.class, iqExecutor.wrap(SynchronizationController.synchronize), false);
         externalComponent.addIQHandler(
-                PhoneBook.class, SynchronizationController.synchronize, true);
+                Delta.class, iqExecutor.wrap(SynchronizationController.synchronizeDelta), false);
+        externalComponent.addIQHandler(
+                HashedPhoneBook.class,
+                iqExecutor.wrap(SynchronizationController.synchronizeHashed),
+                false);
+        externalComponent.addIQHandler(
+                CompactPhoneBook.class,
+                iqExecutor.wrap(SynchronizationController.synchronizeCompact),
+                false);
+        if (Configuration.getInstance().getSynchronization().isPush()) {
+            DirectoryIndex.getInstance().setJoinListener(ChangeNotifier.getInstance()::changed);
+            ChangeNotifier.getInstance()
+                    .start(
+                            externalComponent,
+                            Configuration.getInstance().getSynchronization().getPushInterval());
+        }
         connectAndKeepRetrying(externalComponent);
     }
 
@@ -17,6 +17,7 @@
 package im.quicksy.server.configuration;
 
 import com.github.zafarkhaja.semver.Version;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -25,6 +26,7 @@ import de.gultsch.xmpp.addr.adapter.Adapter;
 import im.quicksy.server.json.DurationDeserializer;
 import im.quicksy.server.json.PatternDeserializer;
 import im.quicksy.server.json.VersionDeserializer;
+import im.quicksy.server.throttle.Strategy;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -42,12 +44,15 @@ public class Configuration {
     private Web web = new Web();
     private HashMap<String, DatabaseConfiguration> db;
     private PayPal payPal = new PayPal();
+    private Synchronization synchronization = new Synchronization();
+    private Throttle throttle = new Throttle();
 
     private TreeMap<String, ProviderConfiguration> provider;
 
     private String cimAuthToken;
     private Version minVersion;
     private Duration accountInactivity = Duration.ofDays(28);
+    private Duration directoryRefreshInterval = Duration.ofHours(1);
     private String domain;
     private boolean validatePhoneNumbers = true;
     private boolean preventRegistration = true;
@@ -112,13 +117,19 @@ public class Configuration {
                 && db != null
                 && db.size() == 2
                 && payPal != null
-                && payPal.check();
+                && payPal.check()
+                && throttle != null
+                && throttle.check();
     }
 
     public Duration getAccountInactivity() {
         return accountInactivity;
     }
 
+    public Duration getDirectoryRefreshInterval() {
+        return directoryRefreshInterval;
+    }
+
     public boolean isPreventRegistration() {
         return preventRegistration;
     }
@@ -154,6 +165,14 @@ public class Configuration {
         return payPal;
     }
 
+    public Synchronization getSynchronization() {
+        return synchronization;
+    }
+
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
     public File getVoucherFile() {
         return new File(FILE.getParentFile(), "vouchers.json");
     }
@@ -171,6 +190,9 @@ public class Configuration {
         private int port = 5347;
         private Jid jid;
         private String secret;
+        private int threads = 8;
+        private int queueSize = 512;
+        private Duration slowRequestThreshold = Duration.ofSeconds(1);
 
         public String getHost() {
             return host;
@@ -188,6 +210,18 @@ public class Configuration {
             return secret;
         }
 
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public Duration getSlowRequestThreshold() {
+            return slowRequestThreshold;
+        }
+
         public boolean check() {
             return secret != null && jid != null;
         }
@@ -196,6 +230,9 @@ public class Configuration {
     public static class Web {
         private String host = "127.0.0.1";
         private int port = 4567;
+        private boolean metrics = false;
+        private String metricsHost = "127.0.0.1";
+        private int metricsPort = 0;
 
         public String getHost() {
             return host;
@@ -204,6 +241,19 @@ public class Configuration {
         public int getPort() {
             return port;
         }
+
+        public boolean isMetrics() {
+            return metrics;
+        }
+
+        public String getMetricsHost() {
+            return metricsHost;
+        }
+
+        /** @return the port to serve metrics on or 0 to serve them on the regular port */
+        public int getMetricsPort() {
+            return metricsPort;
+        }
     }
 
     public static class PayPal {
@@ -228,6 +278,187 @@ public class Configuration {
         }
     }
 
+    public static class Synchronization {
+        private long snapshotCapacity = 10_000_000;
+        private Duration snapshotExpiry = Duration.ofDays(7);
+        private Duration lookupTimeout = Duration.ofSeconds(10);
+        private long resultCacheSize = 100_000;
+        private Duration resultCacheExpiry = Duration.ofDays(1);
+        private boolean directoryIndex = true;
+        private double filterFalsePositiveProbability = 0.01;
+        private int minConcurrency = 1;
+        private int maxConcurrency = 32;
+        private Duration targetLatency = Duration.ofMillis(500);
+        private boolean push = true;
+        private long pushCapacity = 10_000_000;
+        private Duration pushExpiry = Duration.ofDays(7);
+        private Duration pushInterval = Duration.ofSeconds(30);
+
+        public long getSnapshotCapacity() {
+            return snapshotCapacity;
+        }
+
+        public Duration getSnapshotExpiry() {
+            return snapshotExpiry;
+        }
+
+        public Duration getLookupTimeout() {
+            return lookupTimeout;
+        }
+
+        public long getResultCacheSize() {
+            return resultCacheSize;
+        }
+
+        public Duration getResultCacheExpiry() {
+            return resultCacheExpiry;
+        }
+
+        public boolean isDirectoryIndex() {
+            return directoryIndex;
+        }
+
+        public double getFilterFalsePositiveProbability() {
+            return filterFalsePositiveProbability;
+        }
+
+        public int getMinConcurrency() {
+            return minConcurrency;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public Duration getTargetLatency() {
+            return targetLatency;
+        }
+
+        public boolean isPush() {
+            return push;
+        }
+
+        public long getPushCapacity() {
+            return pushCapacity;
+        }
+
+        public Duration getPushExpiry() {
+            return pushExpiry;
+        }
+
+        public Duration getPushInterval() {
+            return pushInterval;
+        }
+    }
+
+    public static class Throttle {
+        // the names the controllers look their limiters up by
+        private static final Set<String> LIMITERS =
+                ImmutableSet.of(
+                        "authentication_ip",
+                        "authentication_phone_number",
+                        "authentication_device",
+                        "password_ip",
+                        "synchronization_phone_numbers");
+
+        // limiters that are passed to getStrategy() rather than getStrategies()
+        private static final Set<String> SINGLE_WINDOW_LIMITERS =
+                Collections.singleton("synchronization_phone_numbers");
+
+        private int maxKeys = 1_000_000;
+        private int maxPhoneBooks = 200_000;
+        private boolean shared = false;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private String snapshotFile;
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+        private Map<String, List<Limit>> limits = Collections.emptyMap();
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public boolean isShared() {
+            return shared;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public Optional<File> getSnapshotFile() {
+            return snapshotFile == null ? Optional.empty() : Optional.of(new File(snapshotFile));
+        }
+
+        public Duration getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public int getMaxPhoneBooks() {
+            return maxPhoneBooks;
+        }
+
+        /** @return the strategies configured for the limiter or the defaults if there are none */
+        public Strategy[] getStrategies(final String limiter, final Strategy... defaults) {
+            final List<Limit> configured = limits.get(limiter);
+            if (configured == null || configured.isEmpty()) {
+                return defaults;
+            }
+            return configured.stream().map(Limit::toStrategy).toArray(Strategy[]::new);
+        }
+
+        /** For limiters that only take a single window strategy. */
+        public Strategy getStrategy(final String limiter, final Strategy defaultStrategy) {
+            final Strategy[] strategies = getStrategies(limiter, defaultStrategy);
+            if (strategies.length != 1 || strategies[0].getKind() != Strategy.Kind.WINDOW) {
+                throw new IllegalStateException(limiter + " takes exactly one window limit");
+            }
+            return strategies[0];
+        }
+
+        public boolean check() {
+            if (limits == null) {
+                return false;
+            }
+            for (final Map.Entry<String, List<Limit>> entry : limits.entrySet()) {
+                if (!LIMITERS.contains(entry.getKey())) {
+                    return false;
+                }
+                final List<Limit> configured = entry.getValue();
+                if (configured == null
+                        || configured.contains(null)
+                        || !configured.stream().allMatch(Limit::check)) {
+                    return false;
+                }
+                if (SINGLE_WINDOW_LIMITERS.contains(entry.getKey())
+                        && (configured.size() > 1
+                                || configured.stream().anyMatch(l -> !"window".equals(l.kind)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static class Limit {
+        private Duration duration;
+        private int attempts;
+        private String kind = "window";
+
+        public Strategy toStrategy() {
+            return "gcra".equals(kind)
+                    ? Strategy.gcra(duration, attempts)
+                    : Strategy.of(duration, attempts);
+        }
+
+        public boolean check() {
+            return duration != null
+                    && !duration.isNegative()
+                    && !duration.isZero()
+                    && attempts > 0
+                    && ("window".equals(kind) || "gcra".equals(kind));
+        }
+    }
+
     public static class ProviderConfiguration {
         private Map<String, String> parameter;
         private List<Integer> deny;
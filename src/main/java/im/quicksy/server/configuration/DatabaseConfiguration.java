@@ -22,6 +22,7 @@ public class DatabaseConfiguration {
     private String username;
     private String password;
     private int poolSize = 1;
+    private boolean numericPhoneNumbers = false;
 
     private DatabaseConfiguration() {}
 
@@ -41,6 +42,10 @@ public class DatabaseConfiguration {
         return poolSize;
     }
 
+    public boolean isNumericPhoneNumbers() {
+        return numericPhoneNumbers;
+    }
+
     public static class Builder {
 
         private final DatabaseConfiguration configuration = new DatabaseConfiguration();
@@ -60,6 +65,11 @@ public class DatabaseConfiguration {
             return this;
         }
 
+        public DatabaseConfiguration.Builder setNumericPhoneNumbers(boolean numericPhoneNumbers) {
+            configuration.numericPhoneNumbers = numericPhoneNumbers;
+            return this;
+        }
+
         public DatabaseConfiguration build() {
             return configuration;
         }
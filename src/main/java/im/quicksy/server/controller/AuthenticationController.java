@@ -25,8 +25,12 @@ import im.quicksy.server.Utils;
 import im.quicksy.server.configuration.Configuration;
 import im.quicksy.server.ejabberd.MyEjabberdApi;
 import im.quicksy.server.pojo.Device;
+import im.quicksy.server.throttle.KeyCodec;
+import im.quicksy.server.throttle.LimiterSnapshot;
 import im.quicksy.server.throttle.RateLimiter;
 import im.quicksy.server.throttle.Strategy;
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.utils.PhoneNumberKeys;
 import im.quicksy.server.verification.RequestFailedException;
 import im.quicksy.server.verification.TwilioVerificationProvider;
 import im.quicksy.server.verification.VerificationProvider;
@@ -47,23 +51,31 @@ public class AuthenticationController extends BaseController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthenticationController.class);
 
+    private static final Strategy[] PER_IP_STRATEGIES = {
+        Strategy.of(Duration.ofMinutes(5), 5), Strategy.of(Duration.ofDays(1), 100)
+    };
+
+    private static final Strategy[] PER_PHONE_NUMBER_STRATEGIES = {
+        Strategy.of(Duration.ofMinutes(2), 1), Strategy.of(Duration.ofHours(8), 2)
+    };
+
+    private static final Strategy PER_DEVICE_STRATEGY = Strategy.of(Duration.ofDays(1), 3);
+
     private static final RateLimiter<InetAddress> PER_IP_RATE_LIMITER =
-            RateLimiter.of(
-                    Strategy.of(Duration.ofMinutes(5), 5), Strategy.of(Duration.ofDays(1), 100));
+            rateLimiter("authentication_ip", PER_IP_STRATEGIES);
 
     private static final RateLimiter<Phonenumber.PhoneNumber> PER_PHONE_NUMBER_LIMITER =
-            RateLimiter.of(
-                    Strategy.of(Duration.ofMinutes(2), 1), Strategy.of(Duration.ofHours(8), 2));
+            rateLimiter("authentication_phone_number", PER_PHONE_NUMBER_STRATEGIES);
 
     private static final RateLimiter<Device> PER_DEVICE_LIMITER =
-            RateLimiter.of(Strategy.of(Duration.ofDays(1), 3));
+            rateLimiter("authentication_device", PER_DEVICE_STRATEGY);
 
     public static Route getAuthentication =
             (request, response) -> {
                 final String userSuppliedPhoneNumber = request.params("phoneNumber");
                 final String installationId = request.headers("Installation-Id");
                 final String userSuppliedLanguage = request.headers("Accept-Language");
-                if (!E164_PATTERN.matcher(userSuppliedPhoneNumber).matches()) {
+                if (!E164.isValid(userSuppliedPhoneNumber)) {
                     return halt(400, "phone number is not formatted to E164");
                 }
                 if (installationId == null
@@ -143,4 +155,20 @@ public class AuthenticationController extends BaseController {
                     halt(429, e.getMessage());
                 }
             };
+
+    public static void addLimiters(final LimiterSnapshot snapshot) {
+        snapshot.add(PER_IP_RATE_LIMITER, KeyCodec.INET_ADDRESS)
+                .add(
+                        PER_PHONE_NUMBER_LIMITER,
+                        KeyCodec.of(
+                                phoneNumber -> Long.toString(PhoneNumberKeys.of(phoneNumber)),
+                                key -> PhoneNumberKeys.toPhoneNumber(Long.parseLong(key))))
+                .add(PER_DEVICE_LIMITER, KeyCodec.of(Device::toString, Device::new));
+    }
+
+    public static void applyLimits() {
+        applyLimits(PER_IP_RATE_LIMITER, PER_IP_STRATEGIES);
+        applyLimits(PER_PHONE_NUMBER_LIMITER, PER_PHONE_NUMBER_STRATEGIES);
+        applyLimits(PER_DEVICE_LIMITER, PER_DEVICE_STRATEGY);
+    }
 }
@@ -23,6 +23,10 @@ import com.github.zafarkhaja.semver.Version;
 import com.google.common.base.Splitter;
 import com.google.common.net.InetAddresses;
 import im.quicksy.server.configuration.Configuration;
+import im.quicksy.server.database.Database;
+import im.quicksy.server.throttle.RateLimiter;
+import im.quicksy.server.throttle.SharedCounters;
+import im.quicksy.server.throttle.Strategy;
 import im.quicksy.server.verification.MetaVerificationProvider;
 import im.quicksy.server.verification.VerificationProvider;
 import java.net.InetAddress;
@@ -47,7 +51,6 @@ public class BaseController {
     protected static final String HEADER_X_REAL_IP = "X-Real-IP";
     protected static final String HEADER_AUTHORIZATION = "Authorization";
 
-    public static Pattern E164_PATTERN = Pattern.compile("^\\+?[1-9]\\d{1,14}$");
     protected static Pattern PIN_PATTERN = Pattern.compile("^[0-9]{6}$");
     protected static Pattern UUID_PATTERN =
             Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
@@ -55,6 +58,37 @@ public class BaseController {
     protected static final VerificationProvider VERIFICATION_PROVIDER =
             new MetaVerificationProvider();
 
+    private static SharedCounters SHARED_COUNTERS;
+
+    /** @param defaults the strategies to use unless others are configured for the limiter */
+    protected static <T> RateLimiter<T> rateLimiter(
+            final String name, final Strategy... defaults) {
+        final Configuration.Throttle throttle = Configuration.getInstance().getThrottle();
+        final Strategy[] strategies = throttle.getStrategies(name, defaults);
+        if (throttle.isShared()) {
+            return RateLimiter.of(name, throttle.getMaxKeys(), getSharedCounters(), strategies);
+        }
+        return RateLimiter.of(name, throttle.getMaxKeys(), strategies);
+    }
+
+    /** Applies the strategies that are currently configured for the limiter. */
+    protected static void applyLimits(final RateLimiter<?> limiter, final Strategy... defaults) {
+        limiter.setStrategies(
+                Configuration.getInstance()
+                        .getThrottle()
+                        .getStrategies(limiter.getName(), defaults));
+    }
+
+    private static synchronized SharedCounters getSharedCounters() {
+        if (SHARED_COUNTERS == null) {
+            SHARED_COUNTERS =
+                    new SharedCounters(
+                            Database.getInstance().getCounterStore(),
+                            Configuration.getInstance().getThrottle().getFlushInterval());
+        }
+        return SHARED_COUNTERS;
+    }
+
     protected static InetAddress getClientIp(Request request) {
         final InetAddress remote = InetAddresses.forString(request.ip());
         if (remote.isLoopbackAddress()) {
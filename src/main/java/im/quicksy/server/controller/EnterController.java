@@ -30,6 +30,7 @@ import im.quicksy.server.pojo.PaymentMethod;
 import im.quicksy.server.pojo.Voucher;
 import im.quicksy.server.utils.CimUtils;
 import im.quicksy.server.utils.CodeGenerator;
+import im.quicksy.server.utils.E164;
 import im.quicksy.server.utils.PayPal;
 import im.quicksy.server.verification.TwilioVerificationProvider;
 import im.quicksy.server.verification.VerificationProvider;
@@ -256,10 +257,10 @@ public class EnterController extends BaseController {
                 }
                 final String input = request.queryParams("number");
                 final VerificationProvider.Method method = verificationMethod(request);
-                final String number =
-                        input == null ? "" : CharMatcher.whitespace().removeFrom(input);
-                if (E164_PATTERN.matcher(number).matches()) {
+                if (E164.packLenient(input) != 0) {
                     try {
+                        // digits typed without the + are a US national number
+                        final String number = CharMatcher.whitespace().removeFrom(input);
                         Phonenumber.PhoneNumber phoneNumber =
                                 PhoneNumberUtil.getInstance().parse(number, "us");
                         if (Configuration.getInstance().isValidatePhoneNumbers()
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.controller;
+
+import im.quicksy.server.metrics.Metrics;
+import spark.Route;
+
+public class MetricsController {
+
+    public static Route metrics =
+            (request, response) -> {
+                response.type("text/plain; version=0.0.4");
+                return Metrics.getInstance().render();
+            };
+}
@@ -26,9 +26,13 @@ import com.google.i18n.phonenumbers.Phonenumber;
 import de.gultsch.ejabberd.api.results.Last;
 import im.quicksy.server.Utils;
 import im.quicksy.server.configuration.Configuration;
+import im.quicksy.server.directory.DirectoryIndex;
 import im.quicksy.server.ejabberd.MyEjabberdApi;
+import im.quicksy.server.throttle.KeyCodec;
+import im.quicksy.server.throttle.LimiterSnapshot;
 import im.quicksy.server.throttle.RateLimiter;
 import im.quicksy.server.throttle.Strategy;
+import im.quicksy.server.utils.E164;
 import im.quicksy.server.verification.RequestFailedException;
 import im.quicksy.server.verification.TokenExpiredException;
 import java.net.InetAddress;
@@ -45,8 +49,10 @@ public class PasswordController extends BaseController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PasswordController.class);
 
+    private static final Strategy PER_IP_STRATEGY = Strategy.of(Duration.ofMinutes(5), 16);
+
     private static final RateLimiter<InetAddress> PER_IP_RATE_LIMITER =
-            RateLimiter.of(Strategy.of(Duration.ofMinutes(5), 16));
+            rateLimiter("password_ip", PER_IP_STRATEGY);
 
     public static Route setPassword =
             (request, response) -> {
@@ -78,8 +84,7 @@ public class PasswordController extends BaseController {
                 } catch (Exception e) {
                     return halt(400, "Unable to parse authorization");
                 }
-                if (E164_PATTERN.matcher(username).matches()
-                        && PIN_PATTERN.matcher(pin).matches()) {
+                if (E164.isValid(username) && PIN_PATTERN.matcher(pin).matches()) {
                     final Phonenumber.PhoneNumber phonenumber;
                     try {
                         phonenumber = PhoneNumberUtil.getInstance().parse(username, "de");
@@ -120,11 +125,15 @@ public class PasswordController extends BaseController {
                                     LOGGER.info("delete old and create new user " + jid);
                                     MyEjabberdApi.getInstance()
                                             .unregister(jid.getEscapedLocal(), jid.getDomain());
+                                    DirectoryIndex.getInstance()
+                                            .accountRemoved(jid.getEscapedLocal());
                                     MyEjabberdApi.getInstance()
                                             .register(
                                                     jid.getEscapedLocal(),
                                                     jid.getDomain(),
                                                     password);
+                                    DirectoryIndex.getInstance()
+                                            .accountCreated(jid.getEscapedLocal());
                                     response.status(201);
                                 } else {
                                     LOGGER.info("changing password for existing user " + jid);
@@ -138,6 +147,7 @@ public class PasswordController extends BaseController {
                                 LOGGER.info("create new user " + jid);
                                 MyEjabberdApi.getInstance()
                                         .register(jid.getEscapedLocal(), jid.getDomain(), password);
+                                DirectoryIndex.getInstance().accountCreated(jid.getEscapedLocal());
                                 response.status(201);
                             }
                             return "";
@@ -173,4 +183,12 @@ public class PasswordController extends BaseController {
                     halt(429, e.getMessage());
                 }
             };
+
+    public static void addLimiters(final LimiterSnapshot snapshot) {
+        snapshot.add(PER_IP_RATE_LIMITER, KeyCodec.INET_ADDRESS);
+    }
+
+    public static void applyLimits() {
+        applyLimits(PER_IP_RATE_LIMITER, PER_IP_STRATEGY);
+    }
 }
@@ -16,16 +16,43 @@
 
 package im.quicksy.server.controller;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import im.quicksy.server.configuration.Configuration;
 import im.quicksy.server.database.Database;
+import im.quicksy.server.directory.DirectoryIndex;
+import im.quicksy.server.directory.PhoneNumberHash;
+import im.quicksy.server.directory.RegisteredNumberFilter;
+import im.quicksy.server.metrics.Histogram;
+import im.quicksy.server.metrics.Metrics;
+import im.quicksy.server.metrics.PhaseTimer;
+import im.quicksy.server.synchronization.ChangeNotifier;
+import im.quicksy.server.synchronization.ResultCache;
+import im.quicksy.server.synchronization.Snapshot;
+import im.quicksy.server.throttle.ConcurrencyLimiter;
+import im.quicksy.server.throttle.KeyCodec;
+import im.quicksy.server.throttle.LimiterSnapshot;
 import im.quicksy.server.throttle.Strategy;
 import im.quicksy.server.throttle.VolumeLimiter;
+import im.quicksy.server.utils.CodeGenerator;
+import im.quicksy.server.utils.E164;
 import im.quicksy.server.xmpp.synchronization.Entry;
 import im.quicksy.server.xmpp.synchronization.PhoneBook;
+import im.quicksy.server.xmpp.synchronization.compact.CompactPhoneBook;
+import im.quicksy.server.xmpp.synchronization.delta.Delta;
+import im.quicksy.server.xmpp.synchronization.hashed.HashedPhoneBook;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rocks.xmpp.addr.Jid;
@@ -37,11 +64,99 @@ public class SynchronizationController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SynchronizationController.class);
 
-    private static final VolumeLimiter<Jid, String> PHONE_NUMBER_LIMITER =
-            new VolumeLimiter<>(Strategy.of(Duration.ofDays(1), 2048));
+    private static final int MAX_PHONE_BOOK_SIZE = 2048;
+
+    private static final Strategy PHONE_NUMBER_STRATEGY =
+            Strategy.of(Duration.ofDays(1), MAX_PHONE_BOOK_SIZE);
+
+    // limits by hash so that plain and hashed synchronization share the same budget. configured
+    // limits are put in place by applyLimits()
+    private static final VolumeLimiter<Jid, Long> PHONE_NUMBER_LIMITER =
+            new VolumeLimiter<>(
+                    "synchronization_phone_numbers",
+                    Configuration.getInstance().getThrottle().getMaxPhoneBooks(),
+                    PHONE_NUMBER_STRATEGY,
+                    Long::longValue);
+
+    private static final Cache<String, Snapshot> SNAPSHOTS =
+            CacheBuilder.newBuilder()
+                    .maximumWeight(
+                            Configuration.getInstance().getSynchronization().getSnapshotCapacity())
+                    .<String, Snapshot>weigher((id, snapshot) -> snapshot.size() + 1)
+                    .expireAfterAccess(
+                            Configuration.getInstance().getSynchronization().getSnapshotExpiry())
+                    .build();
+
+    private static final ResultCache RESULTS =
+            new ResultCache(
+                    Configuration.getInstance().getSynchronization().getResultCacheSize(),
+                    Configuration.getInstance().getSynchronization().getResultCacheExpiry());
+
+    // identical requests that arrive while the first one is still being looked up wait for its
+    // result instead of hitting the database again
+    private static final ConcurrentHashMap<ResultCache.Key, CompletableFuture<ResultCache.Result>>
+            IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private static final LongAdder COALESCED =
+            Metrics.getInstance()
+                    .counter(
+                            "quicksy_sync_coalesced_total",
+                            "Synchronizations that joined an identical running lookup");
+
+    private static final LongAdder UNCHANGED =
+            Metrics.getInstance()
+                    .counter(
+                            "quicksy_sync_unchanged_total",
+                            "Synchronizations answered without a result because ver was current");
+    private static final LongAdder THROTTLED =
+            Metrics.getInstance()
+                    .counter(
+                            "quicksy_sync_throttled_total",
+                            "Synchronizations rejected by the daily phone number limit");
+    private static final LongAdder OVERLOADED =
+            Metrics.getInstance()
+                    .counter(
+                            "quicksy_sync_overloaded_total",
+                            "Synchronizations rejected because of too many database lookups");
+    private static final LongAdder TIMEOUTS =
+            Metrics.getInstance()
+                    .counter("quicksy_sync_timeouts_total", "Synchronizations that timed out");
+
+    private static final Histogram PHONE_BOOK_SIZE =
+            Metrics.getInstance()
+                    .histogram(
+                            "quicksy_sync_phone_book_size",
+                            "Phone numbers per synchronization",
+                            Histogram.PHONE_BOOK_SIZES);
+    private static final Histogram PARSE_TIME =
+            phase("parse", "Time spent decoding the phone numbers of a request");
+    private static final Histogram LIMITER_TIME =
+            phase("limiter", "Time spent in the daily phone number limit");
+    private static final Histogram CACHE_TIME =
+            phase("cache", "Time spent looking up cached results");
+    private static final Histogram COALESCED_TIME =
+            phase("coalesced", "Time spent waiting for an identical running lookup");
+    private static final Histogram INDEX_TIME =
+            phase("index", "Time spent looking up phone numbers in the directory index");
+    private static final Histogram EJABBERD_TIME =
+            phase("ejabberd_query", "Duration of the query for ejabberd accounts");
+    private static final Histogram DIRECTORY_TIME =
+            phase("directory_query", "Duration of the query for directory entries");
+    private static final Histogram DATABASE_TIME =
+            phase("database", "Time spent waiting for both database queries");
+    private static final Histogram HASH_TIME =
+            phase("hash", "Time spent computing the ver of a result");
+
+    // keeps synchronization from monopolizing the (shared) ejabberd database
+    private static final ConcurrencyLimiter DATABASE_LIMITER =
+            new ConcurrencyLimiter(
+                    Configuration.getInstance().getSynchronization().getMinConcurrency(),
+                    Configuration.getInstance().getSynchronization().getMaxConcurrency(),
+                    Configuration.getInstance().getSynchronization().getTargetLatency());
 
     public static IQHandler synchronize =
             iq -> {
+                final PhaseTimer timer = PhaseTimer.current();
                 final PhoneBook phoneBook = iq.getExtension(PhoneBook.class);
                 final Jid user = iq.getFrom().asBareJid();
                 if (phoneBook == null) {
@@ -53,32 +168,40 @@ public class SynchronizationController {
                     return iq.createError(Condition.NOT_AUTHORIZED);
                 }
 
-                final List<String> phoneNumbers = phoneBook.getPhoneNumbers();
+                final long[] phoneNumbers = phoneBook.getPhoneNumberKeys();
+                PHONE_BOOK_SIZE.observe(phoneNumbers.length);
+                timer.lap("parse", PARSE_TIME);
 
                 try {
-                    PHONE_NUMBER_LIMITER.attempt(user, phoneNumbers);
+                    PHONE_NUMBER_LIMITER.attempt(user, hashes(phoneNumbers));
                 } catch (VolumeLimiter.RetryInException e) {
+                    THROTTLED.increment();
                     return iq.createError(
                             new StanzaError(Condition.POLICY_VIOLATION, e.getMessage()));
                 }
+                timer.lap("limiter", LIMITER_TIME);
 
-                LOGGER.info(user + " requested to sync " + phoneNumbers.size() + " phone numbers");
-                final HashMap<String, Entry> entryMap = new HashMap<>();
-                final List<String> existingUsersOnQuicksy =
-                        Database.getInstance().findExistingUsers(domain, phoneNumbers);
-                for (String phoneNumber : existingUsersOnQuicksy) {
-                    Entry entry = entryMap.computeIfAbsent(phoneNumber, Entry::new);
-                    entry.addJid(Jid.of(phoneNumber, domain, null));
-                }
-                final List<Database.RawEntry> directoryUsers =
-                        Database.getInstance().findDirectoryUsers(phoneNumbers);
-                for (Database.RawEntry rawEntry : directoryUsers) {
-                    Entry entry = entryMap.computeIfAbsent(rawEntry.getPhoneNumber(), Entry::new);
-                    entry.addJid(rawEntry.getJid());
+                LOGGER.info(user + " requested to sync " + phoneNumbers.length + " phone numbers");
+                final ResultCache.Result result;
+                try {
+                    result = lookup(user, domain, phoneNumbers);
+                } catch (TimeoutException e) {
+                    TIMEOUTS.increment();
+                    LOGGER.warn("looking up phone numbers for " + user + " timed out");
+                    return iq.createError(Condition.RESOURCE_CONSTRAINT);
+                } catch (ConcurrencyLimiter.RetryInException e) {
+                    OVERLOADED.increment();
+                    LOGGER.info("rejecting " + user + ". too many concurrent database lookups");
+                    return iq.createError(
+                            new StanzaError(
+                                    StanzaError.Type.WAIT,
+                                    Condition.RESOURCE_CONSTRAINT,
+                                    e.getMessage()));
                 }
-                final List<Entry> entries = new ArrayList<>(entryMap.values());
-                final String hash = Entry.statusQuo(entries);
+                final List<Entry> entries = result.getEntries();
+                final String hash = result.getVer();
                 if (hash.equals(phoneBook.getVer())) {
+                    UNCHANGED.increment();
                     LOGGER.info(
                             "hash hasn't changed for "
                                     + user
@@ -91,4 +214,430 @@ public class SynchronizationController {
                 LOGGER.info("responding to " + user + " with " + entries.size() + " entries");
                 return iq.createResult(new PhoneBook(entries));
             };
+
+    public static IQHandler synchronizeDelta =
+            iq -> {
+                final PhaseTimer timer = PhaseTimer.current();
+                final Delta delta = iq.getExtension(Delta.class);
+                final Jid user = iq.getFrom().asBareJid();
+                if (delta == null) {
+                    return iq.createError(Condition.BAD_REQUEST);
+                }
+                final String domain = Configuration.getInstance().getDomain();
+
+                if (!user.getDomain().equals(domain)) {
+                    return iq.createError(Condition.NOT_AUTHORIZED);
+                }
+
+                final Snapshot previous;
+                if (delta.getSnapshot() == null) {
+                    previous = Snapshot.empty(user);
+                } else {
+                    previous = SNAPSHOTS.getIfPresent(delta.getSnapshot());
+                    if (previous == null || !user.equals(previous.getOwner())) {
+                        LOGGER.info(user + " referenced unknown snapshot " + delta.getSnapshot());
+                        return iq.createError(Condition.ITEM_NOT_FOUND);
+                    }
+                }
+                final Snapshot snapshot = previous.apply(delta.getAdded(), delta.getRemoved());
+                // same cap as a plain phone book gets from the limiter
+                final int maxPhoneBookSize = PHONE_NUMBER_LIMITER.getStrategy().getAttempts();
+                if (snapshot.size() > maxPhoneBookSize) {
+                    return iq.createError(
+                            new StanzaError(
+                                    Condition.POLICY_VIOLATION,
+                                    "Phone book exceeds " + maxPhoneBookSize + " entries"));
+                }
+                final List<String> added = snapshot.difference(previous);
+                PHONE_BOOK_SIZE.observe(snapshot.size());
+                timer.lap("parse", PARSE_TIME);
+
+                try {
+                    PHONE_NUMBER_LIMITER.attempt(user, hashes(added));
+                } catch (VolumeLimiter.RetryInException e) {
+                    THROTTLED.increment();
+                    return iq.createError(
+                            new StanzaError(Condition.POLICY_VIOLATION, e.getMessage()));
+                }
+                timer.lap("limiter", LIMITER_TIME);
+
+                LOGGER.info(
+                        user
+                                + " requested to sync "
+                                + snapshot.size()
+                                + " phone numbers ("
+                                + added.size()
+                                + " added)");
+                final ResultCache.Result result;
+                try {
+                    result = lookup(user, domain, snapshot.getPhoneNumberKeys());
+                } catch (TimeoutException e) {
+                    TIMEOUTS.increment();
+                    LOGGER.warn("looking up phone numbers for " + user + " timed out");
+                    return iq.createError(Condition.RESOURCE_CONSTRAINT);
+                } catch (ConcurrencyLimiter.RetryInException e) {
+                    OVERLOADED.increment();
+                    LOGGER.info("rejecting " + user + ". too many concurrent database lookups");
+                    return iq.createError(
+                            new StanzaError(
+                                    StanzaError.Type.WAIT,
+                                    Condition.RESOURCE_CONSTRAINT,
+                                    e.getMessage()));
+                }
+                final List<Entry> entries = result.getEntries();
+                final String hash = result.getVer();
+
+                if (delta.getSnapshot() != null) {
+                    SNAPSHOTS.invalidate(delta.getSnapshot());
+                }
+                final String id = CodeGenerator.generate(16);
+                SNAPSHOTS.put(id, snapshot.withResult(hash, result.getSequence()));
+
+                if (hash.equals(delta.getVer())) {
+                    UNCHANGED.increment();
+                    LOGGER.info(
+                            "hash hasn't changed for "
+                                    + user
+                                    + " ("
+                                    + entries.size()
+                                    + " entries)");
+                    return iq.createResult(new Delta(id));
+                }
+                final long[] changes =
+                        previous.hasVer(delta.getVer())
+                                ? DirectoryIndex.getInstance().changedSince(previous.getSequence())
+                                : null;
+                if (changes != null) {
+                    final List<Entry> changed = snapshot.changedEntries(entries, changes, added);
+                    LOGGER.info(
+                            "responding to "
+                                    + user
+                                    + " with "
+                                    + changed.size()
+                                    + " changed entries");
+                    return iq.createResult(new Delta(id, delta.getVer(), new PhoneBook(changed)));
+                }
+                LOGGER.info("responding to " + user + " with " + entries.size() + " entries");
+                return iq.createResult(new Delta(id, new PhoneBook(entries)));
+            };
+
+    public static IQHandler synchronizeHashed =
+            iq -> {
+                final PhaseTimer timer = PhaseTimer.current();
+                final HashedPhoneBook phoneBook = iq.getExtension(HashedPhoneBook.class);
+                final Jid user = iq.getFrom().asBareJid();
+                if (phoneBook == null) {
+                    return iq.createError(Condition.BAD_REQUEST);
+                }
+                final String domain = Configuration.getInstance().getDomain();
+
+                if (!user.getDomain().equals(domain)) {
+                    return iq.createError(Condition.NOT_AUTHORIZED);
+                }
+
+                // hashes can only be resolved with the complete directory at hand
+                if (!Configuration.getInstance().getSynchronization().isDirectoryIndex()
+                        || !DirectoryIndex.getInstance().isLoaded()) {
+                    return iq.createError(Condition.SERVICE_UNAVAILABLE);
+                }
+
+                final long[] hashes;
+                try {
+                    hashes = phoneBook.getHashes();
+                } catch (IllegalArgumentException e) {
+                    return iq.createError(new StanzaError(Condition.BAD_REQUEST, e.getMessage()));
+                }
+                PHONE_BOOK_SIZE.observe(hashes.length);
+                timer.lap("parse", PARSE_TIME);
+
+                try {
+                    PHONE_NUMBER_LIMITER.attempt(user, hashes);
+                } catch (VolumeLimiter.RetryInException e) {
+                    THROTTLED.increment();
+                    return iq.createError(
+                            new StanzaError(Condition.POLICY_VIOLATION, e.getMessage()));
+                }
+                timer.lap("limiter", LIMITER_TIME);
+
+                LOGGER.info(user + " requested to sync " + hashes.length + " hashed phone numbers");
+                final List<Entry> entries = DirectoryIndex.getInstance().findHashed(domain, hashes);
+                timer.lap("index", INDEX_TIME);
+                final String hash = Entry.statusQuo(entries);
+                timer.lap("hash", HASH_TIME);
+                if (hash.equals(phoneBook.getVer())) {
+                    UNCHANGED.increment();
+                    LOGGER.info(
+                            "hash hasn't changed for "
+                                    + user
+                                    + " ("
+                                    + entries.size()
+                                    + " entries)");
+                    return iq.createResult();
+                }
+                LOGGER.info("responding to " + user + " with " + entries.size() + " entries");
+                return iq.createResult(new HashedPhoneBook(entries));
+            };
+
+    public static IQHandler synchronizeCompact =
+            iq -> {
+                final PhaseTimer timer = PhaseTimer.current();
+                final CompactPhoneBook phoneBook = iq.getExtension(CompactPhoneBook.class);
+                final Jid user = iq.getFrom().asBareJid();
+                if (phoneBook == null) {
+                    return iq.createError(Condition.BAD_REQUEST);
+                }
+                final String domain = Configuration.getInstance().getDomain();
+
+                if (!user.getDomain().equals(domain)) {
+                    return iq.createError(Condition.NOT_AUTHORIZED);
+                }
+
+                final long[] phoneNumbers;
+                try {
+                    phoneNumbers = phoneBook.getPhoneNumberKeys();
+                } catch (IllegalArgumentException e) {
+                    return iq.createError(new StanzaError(Condition.BAD_REQUEST, e.getMessage()));
+                }
+                PHONE_BOOK_SIZE.observe(phoneNumbers.length);
+                timer.lap("parse", PARSE_TIME);
+
+                try {
+                    PHONE_NUMBER_LIMITER.attempt(user, hashes(phoneNumbers));
+                } catch (VolumeLimiter.RetryInException e) {
+                    THROTTLED.increment();
+                    return iq.createError(
+                            new StanzaError(Condition.POLICY_VIOLATION, e.getMessage()));
+                }
+                timer.lap("limiter", LIMITER_TIME);
+
+                LOGGER.info(user + " requested to sync " + phoneNumbers.length + " phone numbers");
+                final ResultCache.Result result;
+                try {
+                    result = lookup(user, domain, phoneNumbers);
+                } catch (TimeoutException e) {
+                    TIMEOUTS.increment();
+                    LOGGER.warn("looking up phone numbers for " + user + " timed out");
+                    return iq.createError(Condition.RESOURCE_CONSTRAINT);
+                } catch (ConcurrencyLimiter.RetryInException e) {
+                    OVERLOADED.increment();
+                    LOGGER.info("rejecting " + user + ". too many concurrent database lookups");
+                    return iq.createError(
+                            new StanzaError(
+                                    StanzaError.Type.WAIT,
+                                    Condition.RESOURCE_CONSTRAINT,
+                                    e.getMessage()));
+                }
+                final List<Entry> entries = result.getEntries();
+                if (result.getVer().equals(phoneBook.getVer())) {
+                    UNCHANGED.increment();
+                    LOGGER.info(
+                            "hash hasn't changed for "
+                                    + user
+                                    + " ("
+                                    + entries.size()
+                                    + " entries)");
+                    return iq.createResult();
+                }
+                LOGGER.info("responding to " + user + " with " + entries.size() + " entries");
+                return iq.createResult(new CompactPhoneBook(entries, domain));
+            };
+
+    private static Histogram phase(final String name, final String help) {
+        return Metrics.getInstance()
+                .histogram("quicksy_sync_" + name + "_milliseconds", help, Histogram.MILLISECONDS);
+    }
+
+    private static long[] hashes(final List<String> phoneNumbers) {
+        final long[] hashes = new long[phoneNumbers.size()];
+        for (int i = 0; i < hashes.length; ++i) {
+            hashes[i] = PhoneNumberHash.of(phoneNumbers.get(i));
+        }
+        return hashes;
+    }
+
+    private static long[] hashes(final long[] phoneNumbers) {
+        final long[] hashes = new long[phoneNumbers.length];
+        for (int i = 0; i < phoneNumbers.length; ++i) {
+            hashes[i] = PhoneNumberHash.of(phoneNumbers[i]);
+        }
+        return hashes;
+    }
+
+    public static ResultCache getResultCache() {
+        return RESULTS;
+    }
+
+    public static ConcurrencyLimiter getDatabaseLimiter() {
+        return DATABASE_LIMITER;
+    }
+
+    public static long getCoalescedCount() {
+        return COALESCED.sum();
+    }
+
+    public static void addLimiters(final LimiterSnapshot snapshot) {
+        snapshot.add(PHONE_NUMBER_LIMITER, KeyCodec.of(Jid::toEscapedString, Jid::ofEscaped));
+    }
+
+    public static void applyLimits() {
+        PHONE_NUMBER_LIMITER.setStrategy(
+                Configuration.getInstance()
+                        .getThrottle()
+                        .getStrategy(PHONE_NUMBER_LIMITER.getName(), PHONE_NUMBER_STRATEGY));
+    }
+
+    private static ResultCache.Result lookup(
+            final Jid user, final String domain, final long[] phoneNumbers)
+            throws TimeoutException, ConcurrencyLimiter.RetryInException {
+        if (Configuration.getInstance().getSynchronization().isPush()) {
+            ChangeNotifier.getInstance().subscribe(user, phoneNumbers);
+        }
+        final ResultCache.Key key = ResultCache.key(user, phoneNumbers);
+        // read the sequence and the generation first; a change that races with the lookup below
+        // will then make the cached result stale right away and still be reported to delta
+        // clients that are handed this sequence
+        final long sequence = DirectoryIndex.getInstance().getSequence();
+        final long generation = DirectoryIndex.getInstance().getGeneration();
+        final ResultCache.Result cached = RESULTS.get(key, generation);
+        final PhaseTimer timer = PhaseTimer.current();
+        timer.lap("cache", CACHE_TIME);
+        if (cached != null) {
+            LOGGER.debug("serving cached result to " + user);
+            return cached;
+        }
+        final CompletableFuture<ResultCache.Result> future = new CompletableFuture<>();
+        final CompletableFuture<ResultCache.Result> running = IN_FLIGHT.putIfAbsent(key, future);
+        if (running != null) {
+            LOGGER.debug("joining running synchronization of " + user);
+            COALESCED.increment();
+            final ResultCache.Result result = await(running);
+            timer.lap("coalesced", COALESCED_TIME);
+            return result;
+        }
+        try {
+            final List<Entry> entries = findEntries(domain, phoneNumbers);
+            final String ver = Entry.statusQuo(entries);
+            timer.lap("hash", HASH_TIME);
+            final ResultCache.Result result =
+                    new ResultCache.Result(generation, sequence, ver, entries);
+            RESULTS.put(key, result);
+            future.complete(result);
+            return result;
+        } catch (final TimeoutException
+                | ConcurrencyLimiter.RetryInException
+                | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, future);
+        }
+    }
+
+    private static ResultCache.Result await(final CompletableFuture<ResultCache.Result> running)
+            throws TimeoutException, ConcurrencyLimiter.RetryInException {
+        final Duration timeout =
+                Configuration.getInstance().getSynchronization().getLookupTimeout();
+        try {
+            return running.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new TimeoutException(cause.getMessage());
+            }
+            if (cause instanceof ConcurrencyLimiter.RetryInException) {
+                throw (ConcurrencyLimiter.RetryInException) cause;
+            }
+            Throwables.throwIfUnchecked(cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static List<Entry> findEntries(final String domain, final long[] phoneNumbers)
+            throws TimeoutException, ConcurrencyLimiter.RetryInException {
+        if (Configuration.getInstance().getSynchronization().isDirectoryIndex()
+                && DirectoryIndex.getInstance().isLoaded()) {
+            final List<Entry> entries = DirectoryIndex.getInstance().find(domain, phoneNumbers);
+            PhaseTimer.current().lap("index", INDEX_TIME);
+            return entries;
+        } else {
+            return findEntriesInDatabase(domain, phoneNumbers);
+        }
+    }
+
+    private static List<Entry> findEntriesInDatabase(
+            final String domain, final long[] requestedPhoneNumbers)
+            throws TimeoutException, ConcurrencyLimiter.RetryInException {
+        final List<String> phoneNumbers = new ArrayList<>();
+        final long[] registered = new long[requestedPhoneNumbers.length];
+        for (final long key : requestedPhoneNumbers) {
+            if (RegisteredNumberFilter.getInstance().mightContain(key)) {
+                registered[phoneNumbers.size()] = key;
+                phoneNumbers.add(E164.format(key));
+            }
+        }
+        if (phoneNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final ConcurrencyLimiter.Permit permit = DATABASE_LIMITER.acquire();
+        final PhaseTimer timer = PhaseTimer.current();
+        final long queried = System.nanoTime();
+        final CompletableFuture<List<String>> existingUsersOnQuicksy =
+                Database.getInstance().findExistingUsersAsync(domain, phoneNumbers);
+        existingUsersOnQuicksy.thenRun(
+                () -> timer.record("ejabberd", EJABBERD_TIME, System.nanoTime() - queried));
+        final long[] keys = Arrays.copyOf(registered, phoneNumbers.size());
+        final CompletableFuture<List<Database.RawEntry>> directoryUsers =
+                Database.getInstance().findDirectoryUsersAsync(keys);
+        directoryUsers.thenRun(
+                () -> timer.record("directory", DIRECTORY_TIME, System.nanoTime() - queried));
+        final Duration timeout =
+                Configuration.getInstance().getSynchronization().getLookupTimeout();
+        boolean completed = false;
+        try {
+            final List<Entry> entries =
+                    existingUsersOnQuicksy
+                            .thenCombine(
+                                    directoryUsers,
+                                    (users, rawEntries) -> merge(domain, users, rawEntries))
+                            .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            timer.lap("database", DATABASE_TIME);
+            completed = true;
+            return entries;
+        } catch (final TimeoutException e) {
+            existingUsersOnQuicksy.cancel(false);
+            directoryUsers.cancel(false);
+            throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (completed) {
+                permit.release();
+            } else {
+                permit.drop();
+            }
+        }
+    }
+
+    private static List<Entry> merge(
+            final String domain,
+            final List<String> existingUsersOnQuicksy,
+            final List<Database.RawEntry> directoryUsers) {
+        final HashMap<String, Entry> entryMap = new HashMap<>();
+        for (String phoneNumber : existingUsersOnQuicksy) {
+            Entry entry = entryMap.computeIfAbsent(phoneNumber, Entry::new);
+            entry.addJid(Jid.of(phoneNumber, domain, null));
+        }
+        for (Database.RawEntry rawEntry : directoryUsers) {
+            Entry entry = entryMap.computeIfAbsent(rawEntry.getPhoneNumber(), Entry::new);
+            entry.addJid(rawEntry.getJid());
+        }
+        return new ArrayList<>(entryMap.values());
+    }
 }
@@ -18,22 +18,34 @@ package im.quicksy.server.database;
 
 import static im.quicksy.server.database.SqlQuery.*;
 
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.i18n.phonenumbers.Phonenumber;
 import com.zaxxer.hikari.HikariDataSource;
 import de.gultsch.xmpp.addr.adapter.Adapter;
 import im.quicksy.server.configuration.Configuration;
 import im.quicksy.server.configuration.DatabaseConfiguration;
 import im.quicksy.server.configuration.DatabaseConfigurationBundle;
+import im.quicksy.server.directory.DirectoryIndex;
 import im.quicksy.server.pojo.Entry;
 import im.quicksy.server.pojo.Payment;
 import im.quicksy.server.pojo.PaymentStatus;
+import im.quicksy.server.throttle.CounterStore;
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.utils.PhoneNumberKeys;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sql2o.Connection;
+import org.sql2o.ResultSetIterable;
 import org.sql2o.Sql2o;
 import org.sql2o.converters.Converter;
 import org.sql2o.quirks.NoQuirks;
@@ -51,6 +63,14 @@ public class Database {
     private final Sql2o ejabberdDatabase;
     private final Sql2o quicksyDatabase;
 
+    private final ExecutorService ejabberdExecutor;
+    private final ExecutorService quicksyExecutor;
+
+    private final boolean numericPhoneNumbers;
+    private final CompletableFuture<Long> phoneNumberKeyBackfill;
+
+    private final CounterStore counterStore;
+
     static {
         HashMap<Class, Converter> converters = new HashMap<>();
         Adapter.register(converters);
@@ -63,27 +83,16 @@ public class Database {
     public Database(DatabaseConfigurationBundle configurationBundle) {
         this.ejabberdDatabase = createDatabase(configurationBundle.getEjabberdConfiguration());
         this.quicksyDatabase = createDatabase(configurationBundle.getQuicksyConfiguration());
-        setup(this.quicksyDatabase);
-    }
-
-    private static void setup(Sql2o quicksyDatabase) {
-        try (Connection connection = quicksyDatabase.open()) {
-            connection
-                    .createQuery(
-                            "CREATE TABLE IF NOT EXISTS `payments` ( `uuid` char(36) NOT NULL,"
-                                + " `owner` varchar(191) DEFAULT NULL, `method` varchar(100)"
-                                + " DEFAULT NULL, `token` varchar(255) DEFAULT NULL, `total` float"
-                                + " DEFAULT NULL, `status` varchar(100) DEFAULT NULL, `created`"
-                                + " timestamp NOT NULL, PRIMARY KEY (`uuid`))")
-                    .executeUpdate();
-            connection
-                    .createQuery(
-                            "CREATE TABLE IF NOT EXISTS `entries` ( `jid` varchar(191) NOT NULL,"
-                                + " `phoneNumber` varchar(25) DEFAULT NULL, `verified` tinyint(1)"
-                                + " DEFAULT '0', `attempts` int(11) DEFAULT NULL, PRIMARY KEY"
-                                + " (`jid`))")
-                    .executeUpdate();
-        }
+        this.ejabberdExecutor =
+                createExecutor("ejabberd", configurationBundle.getEjabberdConfiguration());
+        this.quicksyExecutor =
+                createExecutor("quicksy", configurationBundle.getQuicksyConfiguration());
+        this.numericPhoneNumbers =
+                configurationBundle.getQuicksyConfiguration().isNumericPhoneNumbers();
+        Migrations.migrate(this.quicksyDatabase);
+        this.phoneNumberKeyBackfill =
+                new PhoneNumberKeyBackfill(this.quicksyDatabase, this.quicksyExecutor).start();
+        this.counterStore = new DatabaseCounterStore(this.quicksyDatabase);
     }
 
     private static Sql2o createDatabase(DatabaseConfiguration configuration) {
@@ -95,6 +104,16 @@ public class Database {
         return new Sql2o(dataSource, QUIRKS);
     }
 
+    private static ExecutorService createExecutor(
+            String name, DatabaseConfiguration configuration) {
+        return Executors.newFixedThreadPool(
+                configuration.getPoolSize(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(name + "-query-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
     public static synchronized Database getInstance() {
         if (INSTANCE == null) {
             INSTANCE = new Database(Configuration.getInstance().getDatabaseConfigurationBundle());
@@ -102,6 +121,10 @@ public class Database {
         return INSTANCE;
     }
 
+    public CounterStore getCounterStore() {
+        return counterStore;
+    }
+
     public List<String> findExistingUsers(String host, List<String> users) {
         try (Connection connection = this.ejabberdDatabase.open()) {
             return connection
@@ -112,15 +135,77 @@ public class Database {
         }
     }
 
-    public List<RawEntry> findDirectoryUsers(List<String> phoneNumbers) {
+    public CompletableFuture<List<String>> findExistingUsersAsync(String host, List<String> users) {
+        return CompletableFuture.supplyAsync(
+                () -> findExistingUsers(host, users), this.ejabberdExecutor);
+    }
+
+    /** @return completes once every entry has its phoneNumberKey filled in */
+    public CompletableFuture<Long> getPhoneNumberKeyBackfill() {
+        return phoneNumberKeyBackfill;
+    }
+
+    /** @param phoneNumbers packed E.164 numbers as produced by {@link E164#pack(CharSequence)} */
+    public List<RawEntry> findDirectoryUsers(final long[] phoneNumbers) {
+        // rows that haven't been backfilled yet can only be found by their string
+        if (numericPhoneNumbers
+                && phoneNumberKeyBackfill.isDone()
+                && !phoneNumberKeyBackfill.isCompletedExceptionally()) {
+            return findDirectoryUsersByKey(phoneNumbers);
+        }
+        final List<String> strings = new ArrayList<>(phoneNumbers.length);
+        for (final long key : phoneNumbers) {
+            strings.add(E164.format(key));
+        }
+        if (strings.isEmpty()) {
+            return new ArrayList<>();
+        }
         try (Connection connection = this.quicksyDatabase.open()) {
             return connection
                     .createQuery(FIND_DICTIONARY_ENTRIES)
-                    .addParameter("phoneNumbers", phoneNumbers)
+                    .addParameter("phoneNumbers", strings)
                     .executeAndFetch(RawEntry.class);
         }
     }
 
+    private List<RawEntry> findDirectoryUsersByKey(final long[] phoneNumbers) {
+        if (phoneNumbers.length == 0) {
+            return new ArrayList<>();
+        }
+        try (Connection connection = this.quicksyDatabase.open()) {
+            return connection
+                    .createQuery(FIND_DICTIONARY_ENTRIES_BY_KEY)
+                    .addParameter("phoneNumberKeys", Longs.asList(phoneNumbers))
+                    .executeAndFetch(RawEntry.class);
+        }
+    }
+
+    public CompletableFuture<List<RawEntry>> findDirectoryUsersAsync(final long[] phoneNumbers) {
+        return CompletableFuture.supplyAsync(
+                () -> findDirectoryUsers(phoneNumbers), this.quicksyExecutor);
+    }
+
+    public void forEachUser(String host, Consumer<String> consumer) {
+        try (Connection connection = this.ejabberdDatabase.open();
+                ResultSetIterable<String> users =
+                        connection
+                                .createQuery(FIND_ALL_USERS)
+                                .addParameter("host", host)
+                                .executeAndFetchLazy(String.class)) {
+            users.forEach(consumer);
+        }
+    }
+
+    public void forEachDirectoryUser(Consumer<RawEntry> consumer) {
+        try (Connection connection = this.quicksyDatabase.open();
+                ResultSetIterable<RawEntry> entries =
+                        connection
+                                .createQuery(FIND_ALL_DICTIONARY_ENTRIES)
+                                .executeAndFetchLazy(RawEntry.class)) {
+            entries.forEach(consumer);
+        }
+    }
+
     public Entry getEntry(Jid jid) {
         try (Connection connection = this.quicksyDatabase.open()) {
             return connection
@@ -134,12 +219,14 @@ public class Database {
         try (Connection connection = this.quicksyDatabase.open()) {
             connection.createQuery(UPDATE_ENTRY).bind(entry).executeUpdate();
         }
+        DirectoryIndex.getInstance().entryUpdated(entry);
     }
 
     public void deleteEntry(final Entry entry) {
         try (Connection connection = this.quicksyDatabase.open()) {
             connection.createQuery(DELETE_ENTRY).bind(entry).executeUpdate();
         }
+        DirectoryIndex.getInstance().entryDeleted(entry.getJid());
     }
 
     public Payment getPayment(String uuid) {
@@ -184,18 +271,24 @@ public class Database {
             LOGGER.error(e.getMessage());
             return false;
         }
+        DirectoryIndex.getInstance().entryUpdated(entry);
         return true;
     }
 
     public static class RawEntry {
         private Jid jid;
         private String phoneNumber;
+        // set instead of phoneNumber by the numeric lookup
+        private Phonenumber.PhoneNumber phoneNumberKey;
 
         public Jid getJid() {
             return jid;
         }
 
         public String getPhoneNumber() {
+            if (phoneNumber == null && phoneNumberKey != null) {
+                return E164.format(PhoneNumberKeys.of(phoneNumberKey));
+            }
             return phoneNumber;
         }
     }
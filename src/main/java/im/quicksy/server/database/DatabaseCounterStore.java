@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.database;
+
+import im.quicksy.server.throttle.CounterStore;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.data.Row;
+
+/**
+ * Keeps shared throttle counters in the throttle_counters table. Increments are multi-row upserts,
+ * which is the one statement where MariaDB and SQLite (used in tests) disagree on the syntax. The
+ * totals are read back with one query per statement.
+ */
+class DatabaseCounterStore implements CounterStore {
+
+    // 6 parameters per row keep each statement below SQLite's default limit of 999 parameters
+    static final int ROWS_PER_STATEMENT = 128;
+
+    private static final String INSERT =
+            "insert into throttle_counters(limiter,entity,period,started,attempts,expires) values";
+    private static final String ROW =
+            "(:limiter%1$d,:entity%1$d,:period%1$d,:started%1$d,:delta%1$d,:expires%1$d)";
+    private static final String GET =
+            "select limiter,entity,period,started,attempts from throttle_counters where limiter in"
+                    + " (:limiters) and entity in (:entities)";
+    private static final String ON_DUPLICATE_KEY =
+            " on duplicate key update attempts=attempts+values(attempts)";
+    private static final String ON_CONFLICT =
+            " on conflict(limiter,entity,period,started) do update set"
+                    + " attempts=attempts+excluded.attempts";
+    private static final String PURGE = "delete from throttle_counters where expires<:now";
+
+    private final Sql2o database;
+    private final Dialect dialect;
+
+    DatabaseCounterStore(final Sql2o database) {
+        this.database = database;
+        try (Connection connection = database.open()) {
+            this.dialect = Dialect.of(connection);
+        }
+    }
+
+    @Override
+    public long[] add(final List<Increment> increments) {
+        final long[] totals = new long[increments.size()];
+        try (Connection connection = database.beginTransaction()) {
+            // all upserts go first so that repeated counters read the same total
+            for (int from = 0; from < increments.size(); from += ROWS_PER_STATEMENT) {
+                upsert(connection, chunk(increments, from));
+            }
+            for (int from = 0; from < increments.size(); from += ROWS_PER_STATEMENT) {
+                final List<Increment> chunk = chunk(increments, from);
+                final Map<String, Long> current = get(connection, chunk);
+                for (int i = 0; i < chunk.size(); ++i) {
+                    final Increment increment = chunk.get(i);
+                    final Long total = current.get(key(increment));
+                    totals[from + i] = total == null ? increment.getDelta() : total;
+                }
+            }
+            connection.commit();
+        }
+        return totals;
+    }
+
+    private static List<Increment> chunk(final List<Increment> increments, final int from) {
+        return increments.subList(from, Math.min(increments.size(), from + ROWS_PER_STATEMENT));
+    }
+
+    private void upsert(final Connection connection, final List<Increment> increments) {
+        final Query query = connection.createQuery(upsert(dialect, increments.size()));
+        for (int i = 0; i < increments.size(); ++i) {
+            final Increment increment = increments.get(i);
+            query
+                    .addParameter("limiter" + i, increment.getLimiter())
+                    .addParameter("entity" + i, increment.getEntity())
+                    .addParameter("period" + i, increment.getPeriod())
+                    .addParameter("started" + i, increment.getStarted())
+                    .addParameter("delta" + i, increment.getDelta())
+                    .addParameter("expires" + i, increment.getExpires());
+        }
+        query.executeUpdate();
+    }
+
+    private static Map<String, Long> get(
+            final Connection connection, final List<Increment> increments) {
+        final Set<String> limiters = new LinkedHashSet<>();
+        final Set<String> entities = new LinkedHashSet<>();
+        for (final Increment increment : increments) {
+            limiters.add(increment.getLimiter());
+            entities.add(increment.getEntity());
+        }
+        // may return counters of other combinations of limiter and entity; they are ignored
+        final List<Row> rows =
+                connection
+                        .createQuery(GET)
+                        .addParameter("limiters", limiters)
+                        .addParameter("entities", entities)
+                        .executeAndFetchTable()
+                        .rows();
+        final Map<String, Long> current = new HashMap<>();
+        for (final Row row : rows) {
+            current.put(
+                    key(
+                            row.getString("limiter"),
+                            row.getString("entity"),
+                            row.getLong("period"),
+                            row.getLong("started")),
+                    row.getLong("attempts"));
+        }
+        return current;
+    }
+
+    private static String key(final Increment increment) {
+        return key(
+                increment.getLimiter(),
+                increment.getEntity(),
+                increment.getPeriod(),
+                increment.getStarted());
+    }
+
+    private static String key(
+            final String limiter, final String entity, final long period, final long started) {
+        return limiter + '\0' + entity + '\0' + period + '\0' + started;
+    }
+
+    @Override
+    public void purge(final long now) {
+        try (Connection connection = database.open()) {
+            connection.createQuery(PURGE).addParameter("now", now).executeUpdate();
+        }
+    }
+
+    static String upsert(final Dialect dialect, final int rows) {
+        final StringBuilder builder = new StringBuilder(INSERT);
+        for (int i = 0; i < rows; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(String.format(ROW, i));
+        }
+        builder.append(dialect == Dialect.SQLITE ? ON_CONFLICT : ON_DUPLICATE_KEY);
+        return builder.toString();
+    }
+}
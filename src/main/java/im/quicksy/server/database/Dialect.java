@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.database;
+
+import java.sql.SQLException;
+import org.sql2o.Connection;
+import org.sql2o.Sql2oException;
+
+/** The SQL dialects the Quicksy database is used with: MariaDB in production, SQLite in tests. */
+enum Dialect {
+    MARIADB,
+    SQLITE;
+
+    /** @return the dialect of the JDBC product name; anything but SQLite speaks MariaDB */
+    static Dialect of(final String productName) {
+        return "SQLite".equalsIgnoreCase(productName) ? SQLITE : MARIADB;
+    }
+
+    static Dialect of(final Connection connection) {
+        try {
+            return of(connection.getJdbcConnection().getMetaData().getDatabaseProductName());
+        } catch (final SQLException e) {
+            throw new Sql2oException("Unable to determine database product", e);
+        }
+    }
+}
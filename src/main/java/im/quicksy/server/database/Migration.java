@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.database;
+
+import org.sql2o.Connection;
+
+/**
+ * A single step in the evolution of the Quicksy schema. {@link Migrations} applies it in the same
+ * transaction that records its version. Migrations still have to be idempotent: MariaDB implicitly
+ * commits DDL statements, so a migration that failed halfway will be run again in its entirety.
+ */
+public interface Migration {
+
+    int getVersion();
+
+    String getDescription();
+
+    void apply(Connection connection);
+
+    static Migration of(final int version, final String description, final String... statements) {
+        return new Migration() {
+            @Override
+            public int getVersion() {
+                return version;
+            }
+
+            @Override
+            public String getDescription() {
+                return description;
+            }
+
+            @Override
+            public void apply(final Connection connection) {
+                for (final String statement : statements) {
+                    connection.createQuery(statement).executeUpdate();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.database;
+
+import com.google.common.collect.ImmutableList;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+/**
+ * Brings the Quicksy database up to the latest schema version. Applied versions are recorded in
+ * the {@code schema_version} table. Statements are limited to what both MariaDB and SQLite (which
+ * is used in tests) understand. On MariaDB a named lock keeps several instances that start at the
+ * same time from migrating concurrently.
+ */
+public final class Migrations {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Migrations.class);
+
+    private static final String CREATE_SCHEMA_VERSION =
+            "CREATE TABLE IF NOT EXISTS `schema_version` ( `version` int(11) NOT NULL,"
+                    + " `description` varchar(255) NOT NULL, `applied` timestamp NOT NULL,"
+                    + " PRIMARY KEY (`version`))";
+    private static final String GET_SCHEMA_VERSION = "select max(version) from schema_version";
+    private static final String SET_SCHEMA_VERSION =
+            "insert into schema_version(version,description,applied)"
+                    + " values(:version,:description,:applied)";
+    private static final String GET_LOCK = "select get_lock('quicksy_migrations',:timeout)";
+    private static final String RELEASE_LOCK = "select release_lock('quicksy_migrations')";
+
+    private static final Duration LOCK_TIMEOUT = Duration.ofMinutes(10);
+
+    static final List<Migration> MIGRATIONS =
+            ImmutableList.of(
+                    Migration.of(
+                            1,
+                            "create payments and entries",
+                            "CREATE TABLE IF NOT EXISTS `payments` ( `uuid` char(36) NOT NULL,"
+                                    + " `owner` varchar(191) DEFAULT NULL, `method` varchar(100)"
+                                    + " DEFAULT NULL, `token` varchar(255) DEFAULT NULL, `total`"
+                                    + " float DEFAULT NULL, `status` varchar(100) DEFAULT NULL,"
+                                    + " `created` timestamp NOT NULL, PRIMARY KEY (`uuid`))",
+                            "CREATE TABLE IF NOT EXISTS `entries` ( `jid` varchar(191) NOT NULL,"
+                                    + " `phoneNumber` varchar(25) DEFAULT NULL, `verified`"
+                                    + " tinyint(1) DEFAULT '0', `attempts` int(11) DEFAULT NULL,"
+                                    + " PRIMARY KEY (`jid`))"),
+                    Migration.of(
+                            2,
+                            "index entries by phone number",
+                            "CREATE INDEX IF NOT EXISTS `entries_phone_number_verified` ON"
+                                    + " `entries` (`phoneNumber`, `verified`)"),
+                    Migration.of(
+                            3,
+                            "index payments by owner",
+                            "CREATE INDEX IF NOT EXISTS `payments_owner_status` ON `payments`"
+                                    + " (`owner`, `status`)"),
+                    // there is no version 5; existing rows get their phoneNumberKey from
+                    // PhoneNumberKeyBackfill in the background
+                    new PhoneNumberKeyColumn(),
+                    Migration.of(
+                            6,
+                            "create shared throttle counters",
+                            "CREATE TABLE IF NOT EXISTS `throttle_counters` ( `limiter` varchar(48)"
+                                    + " NOT NULL, `entity` varchar(128) NOT NULL, `period` bigint"
+                                    + " NOT NULL, `started` bigint NOT NULL, `attempts` bigint NOT"
+                                    + " NULL, `expires` bigint NOT NULL, PRIMARY KEY (`limiter`,"
+                                    + " `entity`, `period`, `started`))",
+                            "CREATE INDEX IF NOT EXISTS `throttle_counters_expires` ON"
+                                    + " `throttle_counters` (`expires`)"));
+
+    private Migrations() {}
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+    }
+
+    public static int currentVersion(final Sql2o database) {
+        try (Connection connection = database.open()) {
+            return currentVersion(connection);
+        }
+    }
+
+    private static int currentVersion(final Connection connection) {
+        connection.createQuery(CREATE_SCHEMA_VERSION).executeUpdate();
+        final Integer version =
+                connection.createQuery(GET_SCHEMA_VERSION).executeScalar(Integer.class);
+        return version == null ? 0 : version;
+    }
+
+    public static void migrate(final Sql2o database) {
+        migrate(database, MIGRATIONS);
+    }
+
+    static void migrate(final Sql2o database, final List<Migration> migrations) {
+        // a single connection; the pool may not have a second one and the lock is per session
+        try (Connection connection = database.open()) {
+            final boolean locking = Dialect.of(connection) == Dialect.MARIADB;
+            if (locking) {
+                lock(connection);
+            }
+            try {
+                // read after taking the lock; another instance may have just migrated
+                final int current = currentVersion(connection);
+                for (final Migration migration : migrations) {
+                    if (migration.getVersion() > current) {
+                        apply(connection, migration);
+                    }
+                }
+            } finally {
+                if (locking) {
+                    connection.createQuery(RELEASE_LOCK).executeScalar(Integer.class);
+                }
+            }
+        }
+    }
+
+    private static void lock(final Connection connection) {
+        final Integer locked =
+                connection
+                        .createQuery(GET_LOCK)
+                        .addParameter("timeout", LOCK_TIMEOUT.getSeconds())
+                        .executeScalar(Integer.class);
+        if (locked == null || locked != 1) {
+            throw new IllegalStateException(
+                    "Timed out waiting for another instance to migrate the database");
+        }
+    }
+
+    private static void apply(final Connection connection, final Migration migration) {
+        LOGGER.info(
+                "migrating database to version "
+                        + migration.getVersion()
+                        + " ("
+                        + migration.getDescription()
+                        + ")");
+        final java.sql.Connection jdbcConnection = connection.getJdbcConnection();
+        try {
+            jdbcConnection.setAutoCommit(false);
+            try {
+                migration.apply(connection);
+                connection
+                        .createQuery(SET_SCHEMA_VERSION)
+                        .addParameter("version", migration.getVersion())
+                        .addParameter("description", migration.getDescription())
+                        .addParameter("applied", Timestamp.valueOf(LocalDateTime.now()))
+                        .executeUpdate();
+                jdbcConnection.commit();
+            } catch (final RuntimeException e) {
+                jdbcConnection.rollback();
+                throw e;
+            } finally {
+                jdbcConnection.setAutoCommit(true);
+            }
+        } catch (final SQLException e) {
+            throw new Sql2oException(
+                    "Unable to migrate database to version " + migration.getVersion(), e);
+        }
+    }
+}
@@ -19,14 +19,13 @@ package im.quicksy.server.database;
 import com.google.i18n.phonenumbers.NumberParseException;
 import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
-import java.util.regex.Pattern;
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.utils.PhoneNumberKeys;
 import org.sql2o.converters.Converter;
 import org.sql2o.converters.ConverterException;
 
 public class PhoneNumberConverter implements Converter<PhoneNumber> {
 
-    public static Pattern E164_PATTERN = Pattern.compile("^\\+?[1-9]\\d{1,14}$");
-
     @Override
     public PhoneNumber convert(Object o) throws ConverterException {
         if (o == null) {
@@ -34,7 +33,7 @@ public class PhoneNumberConverter implements Converter<PhoneNumber> {
         }
         if (o instanceof String) {
             String string = (String) o;
-            if (!E164_PATTERN.matcher(string).matches()) {
+            if (!E164.isValid(string)) {
                 throw new ConverterException("String doesn't match e164 pattern");
             }
             try {
@@ -42,8 +41,14 @@ public class PhoneNumberConverter implements Converter<PhoneNumber> {
             } catch (NumberParseException e) {
                 throw new ConverterException(e.getMessage());
             }
+        } else if (o instanceof Number) {
+            try {
+                return PhoneNumberKeys.toPhoneNumber(((Number) o).longValue());
+            } catch (IllegalArgumentException e) {
+                throw new ConverterException(e.getMessage());
+            }
         } else {
-            throw new ConverterException("Can only convert strings");
+            throw new ConverterException("Can only convert strings and numbers");
         }
     }
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.database;
+
+import im.quicksy.server.directory.DirectoryIndex;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.data.Row;
+
+/**
+ * Fills entries.phoneNumberKey for rows written before the column existed. Runs in the background
+ * and works through the table in jid order, one batch per task and transaction, so that neither
+ * startup nor the lookups sharing the executor have to wait for the whole table. Numbers that can't
+ * be packed are left alone.
+ */
+class PhoneNumberKeyBackfill {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhoneNumberKeyBackfill.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String FIND_ENTRIES_WITHOUT_KEY =
+            "select jid,phoneNumber from entries where jid>:after and phoneNumber is not null and"
+                    + " phoneNumberKey is null order by jid limit :limit";
+    private static final String SET_KEY =
+            "update entries set phoneNumberKey=:phoneNumberKey where jid=:jid and"
+                    + " phoneNumber=:phoneNumber";
+
+    private final Sql2o database;
+    private final Executor executor;
+    private final CompletableFuture<Long> completion = new CompletableFuture<>();
+    private String after = "";
+    private long count = 0;
+
+    PhoneNumberKeyBackfill(final Sql2o database, final Executor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    /** @return completes with the number of keys that have been filled in */
+    CompletableFuture<Long> start() {
+        executor.execute(this::next);
+        return completion;
+    }
+
+    private void next() {
+        try {
+            if (batch() == BATCH_SIZE) {
+                executor.execute(this::next);
+                return;
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Unable to backfill numeric phone numbers - " + e.getMessage());
+            completion.completeExceptionally(e);
+            return;
+        }
+        LOGGER.info("backfilled " + count + " numeric phone numbers");
+        completion.complete(count);
+    }
+
+    private int batch() {
+        final List<Row> rows;
+        try (Connection connection = database.open()) {
+            rows =
+                    connection
+                            .createQuery(FIND_ENTRIES_WITHOUT_KEY)
+                            .addParameter("after", after)
+                            .addParameter("limit", BATCH_SIZE)
+                            .executeAndFetchTable()
+                            .rows();
+        }
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        try (Connection connection = database.beginTransaction()) {
+            final Query query = connection.createQuery(SET_KEY);
+            int batched = 0;
+            for (final Row row : rows) {
+                final String phoneNumber = row.getString("phoneNumber");
+                final long key = DirectoryIndex.key(phoneNumber);
+                if (key != 0) {
+                    query
+                            .addParameter("phoneNumberKey", key)
+                            .addParameter("jid", row.getString("jid"))
+                            .addParameter("phoneNumber", phoneNumber)
+                            .addToBatch();
+                    ++batched;
+                }
+            }
+            if (batched > 0) {
+                query.executeBatch();
+            }
+            connection.commit();
+            count += batched;
+        }
+        after = rows.get(rows.size() - 1).getString("jid");
+        return rows.size();
+    }
+}
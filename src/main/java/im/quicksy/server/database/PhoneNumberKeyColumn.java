@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.database;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.sql2o.Connection;
+import org.sql2o.Sql2oException;
+
+/** Adds the indexed BIGINT column that holds the packed E.164 form of entries.phoneNumber. */
+class PhoneNumberKeyColumn implements Migration {
+
+    private static final String ADD_COLUMN =
+            "ALTER TABLE `entries` ADD COLUMN `phoneNumberKey` bigint DEFAULT NULL";
+    private static final String ADD_INDEX =
+            "CREATE INDEX IF NOT EXISTS `entries_phone_number_key_verified` ON `entries`"
+                    + " (`phoneNumberKey`, `verified`)";
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    public String getDescription() {
+        return "add numeric phone number column";
+    }
+
+    @Override
+    public void apply(final Connection connection) {
+        // neither SQLite nor older MariaDB versions know ADD COLUMN IF NOT EXISTS
+        if (!hasColumn(connection.getJdbcConnection(), "entries", "phoneNumberKey")) {
+            connection.createQuery(ADD_COLUMN).executeUpdate();
+        }
+        connection.createQuery(ADD_INDEX).executeUpdate();
+    }
+
+    private static boolean hasColumn(
+            final java.sql.Connection connection, final String table, final String column) {
+        try {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet resultSet =
+                    metaData.getColumns(connection.getCatalog(), null, table, column)) {
+                return resultSet.next();
+            }
+        } catch (final SQLException e) {
+            throw new Sql2oException("Unable to inspect table " + table, e);
+        }
+    }
+}
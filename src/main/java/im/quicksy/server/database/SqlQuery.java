@@ -23,15 +23,21 @@ public final class SqlQuery {
     static final String FIND_DICTIONARY_ENTRIES =
             "select jid,phoneNumber from entries where phoneNumber in(:phoneNumbers) and"
                     + " verified=1";
+    static final String FIND_DICTIONARY_ENTRIES_BY_KEY =
+            "select jid,phoneNumberKey from entries where phoneNumberKey in(:phoneNumberKeys) and"
+                    + " verified=1";
+    static final String FIND_ALL_USERS = "select username from users where server_host=:host";
+    static final String FIND_ALL_DICTIONARY_ENTRIES =
+            "select jid,phoneNumber from entries where verified=1";
 
     static final String GET_ENTRY =
             "SELECT jid,phoneNumber,verified,attempts FROM entries where jid=:jid limit 1";
     static final String CREATE_ENTRY =
-            "insert into entries(jid,phoneNumber,verified,attempts)"
-                    + " values(:jid,:phoneNumber,:verified,:attempts)";
+            "insert into entries(jid,phoneNumber,phoneNumberKey,verified,attempts)"
+                    + " values(:jid,:phoneNumber,:phoneNumberKey,:verified,:attempts)";
     static final String UPDATE_ENTRY =
-            "update entries set phoneNumber=:phoneNumber, verified=:verified, attempts=:attempts"
-                    + " where jid=:jid";
+            "update entries set phoneNumber=:phoneNumber, phoneNumberKey=:phoneNumberKey,"
+                    + " verified=:verified, attempts=:attempts where jid=:jid";
     static final String DELETE_ENTRY = "delete from entries where jid=:jid limit 1";
 
     static final String GET_PAYMENT =
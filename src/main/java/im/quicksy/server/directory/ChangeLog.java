@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.directory;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size ring buffer of phone numbers whose directory state has changed. Every change is
+ * identified by a monotonically increasing sequence number; once more than the capacity worth of
+ * changes have been recorded the oldest ones are forgotten and asking for changes since an older
+ * sequence yields null.
+ *
+ * <p>Not thread safe. {@link DirectoryIndex} guards all access.
+ */
+class ChangeLog {
+
+    private final long[] keys;
+    private final int mask;
+    private long head = 0;
+    private long floor = 0;
+
+    ChangeLog(final int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        this.keys = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    void record(final long key) {
+        keys[(int) (head & mask)] = key;
+        ++head;
+    }
+
+    long head() {
+        return head;
+    }
+
+    void truncate() {
+        floor = head;
+    }
+
+    long[] since(final long sequence) {
+        if (sequence < floor || sequence < head - keys.length || sequence > head) {
+            return null;
+        }
+        final long[] changes = new long[(int) (head - sequence)];
+        for (long i = sequence; i < head; ++i) {
+            changes[(int) (i - sequence)] = keys[(int) (i & mask)];
+        }
+        Arrays.sort(changes);
+        int count = 0;
+        for (final long key : changes) {
+            if (count == 0 || changes[count - 1] != key) {
+                changes[count++] = key;
+            }
+        }
+        return Arrays.copyOf(changes, count);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.directory;
+
+import im.quicksy.server.utils.LongIntMap;
+import java.util.Arrays;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Reverse mapping from the jid of every verified directory entry to its packed phone number,
+ * without boxing either. Rows live in dense columns and are found through a {@link LongIntMap}
+ * keyed by {@link Jid#hashCode()}; the rare jids whose hash codes collide are chained through the
+ * next column.
+ *
+ * <p>Not thread safe. {@link DirectoryIndex} guards all access.
+ */
+class DirectoryEntries {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final LongIntMap heads = new LongIntMap();
+    private Jid[] jids = new Jid[MIN_CAPACITY];
+    private long[] keys = new long[MIN_CAPACITY];
+    private int[] next = new int[MIN_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /** @return the packed phone number of the jid or 0 */
+    long get(final Jid jid) {
+        for (int row = heads.get(jid.hashCode()); row >= 0; row = next[row]) {
+            if (jids[row].equals(jid)) {
+                return keys[row];
+            }
+        }
+        return 0;
+    }
+
+    void put(final Jid jid, final long key) {
+        for (int row = heads.get(jid.hashCode()); row >= 0; row = next[row]) {
+            if (jids[row].equals(jid)) {
+                keys[row] = key;
+                return;
+            }
+        }
+        if (size == jids.length) {
+            jids = Arrays.copyOf(jids, size << 1);
+            keys = Arrays.copyOf(keys, size << 1);
+            next = Arrays.copyOf(next, size << 1);
+        }
+        final int row = size++;
+        jids[row] = jid;
+        keys[row] = key;
+        next[row] = heads.put(jid.hashCode(), row);
+    }
+
+    /** @return the packed phone number the jid had or 0 */
+    long remove(final Jid jid) {
+        final long hash = jid.hashCode();
+        int previous = LongIntMap.MISSING;
+        int row = heads.get(hash);
+        while (row >= 0 && !jids[row].equals(jid)) {
+            previous = row;
+            row = next[row];
+        }
+        if (row < 0) {
+            return 0;
+        }
+        final long key = keys[row];
+        if (previous >= 0) {
+            next[previous] = next[row];
+        } else if (next[row] >= 0) {
+            heads.put(hash, next[row]);
+        } else {
+            heads.remove(hash);
+        }
+        // the last row takes the place of the removed one
+        final int last = --size;
+        if (row != last) {
+            relink(last, row);
+            jids[row] = jids[last];
+            keys[row] = keys[last];
+            next[row] = next[last];
+        }
+        jids[last] = null;
+        return key;
+    }
+
+    /** Points whatever refers to the row from to the row to instead. */
+    private void relink(final int from, final int to) {
+        final long hash = jids[from].hashCode();
+        int row = heads.get(hash);
+        if (row == from) {
+            heads.put(hash, to);
+            return;
+        }
+        while (next[row] != from) {
+            row = next[row];
+        }
+        next[row] = to;
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.directory;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import im.quicksy.server.configuration.Configuration;
+import im.quicksy.server.database.Database;
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Resident copy of everything a phone book synchronization needs to know: which phone numbers
+ * have an ejabberd account on the Quicksy domain and which verified directory entries point to
+ * which jid. Populated by {@link #reload()} and kept up to date by {@link Database} and the
+ * registration code. Until the first reload has finished callers are expected to fall back to
+ * SQL.
+ */
+public class DirectoryIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryIndex.class);
+
+    private static final DirectoryIndex INSTANCE = new DirectoryIndex();
+
+    private static final int CHANGE_LOG_CAPACITY = 1 << 20;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ChangeLog changeLog = new ChangeLog(CHANGE_LOG_CAPACITY);
+
+    private State state = new State(0, changeLog);
+    private List<Consumer<State>> pendingMutations = null;
+    private volatile boolean enabled = true;
+    private volatile boolean loaded = false;
+    // whether hashed lookups have been made; reloads hash the fresh table right away then
+    private volatile boolean hashed = false;
+    private long invalidations = 0;
+    private volatile LongConsumer joinListener = null;
+
+    DirectoryIndex() {}
+
+    public static DirectoryIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public static long key(final String phoneNumber) {
+        return E164.pack(phoneNumber);
+    }
+
+    /**
+     * @param listener called with the packed phone number whenever a number gets an account or a
+     *     verified directory entry
+     */
+    public void setJoinListener(final LongConsumer listener) {
+        this.joinListener = listener;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @param enabled false if the directory is looked up in the database instead. The index then
+     *     drops its table and ignores mutations; they only change the generation.
+     */
+    public void setEnabled(final boolean enabled) {
+        lock.writeLock().lock();
+        try {
+            if (this.enabled && !enabled) {
+                state.changeLog = null;
+                state = new State(0, changeLog);
+                loaded = false;
+                ++invalidations;
+            }
+            this.enabled = enabled;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the next change to the directory or -1 if the index hasn't
+     *     been loaded yet. Read it before looking up entries and hand it to {@link
+     *     #changedSince(long)} later on to learn which phone numbers might have a different result
+     *     by now.
+     */
+    public long getSequence() {
+        lock.readLock().lock();
+        try {
+            return loaded ? changeLog.head() : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a counter that changes whenever an account or a directory entry might have changed.
+     *     Unlike {@link #getSequence()} this is available before the index has been loaded.
+     */
+    public long getGeneration() {
+        lock.readLock().lock();
+        try {
+            // every mutation is recorded in the change log even before the first reload
+            return changeLog.head() + invalidations;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Changes the generation without recording anything in the change log. To be called whenever
+     * the database may have been changed behind our back, for example after the {@link
+     * RegisteredNumberFilter} has been rebuilt.
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            ++invalidations;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return sorted, distinct packed phone numbers that have changed since the given sequence or
+     *     null if those changes are no longer known
+     */
+    public long[] changedSince(final long sequence) {
+        if (sequence < 0) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            return changeLog.since(sequence);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Entry> find(final String domain, final Collection<String> phoneNumbers) {
+        final long[] keys = new long[phoneNumbers.size()];
+        int count = 0;
+        for (final String phoneNumber : phoneNumbers) {
+            final long key = key(phoneNumber);
+            if (key != 0) {
+                keys[count++] = key;
+            }
+        }
+        final long[] sorted = Arrays.copyOf(keys, count);
+        Arrays.sort(sorted);
+        return find(domain, sorted);
+    }
+
+    /** @param keys sorted packed phone numbers; duplicates are ignored */
+    public List<Entry> find(final String domain, final long[] keys) {
+        final List<Entry> entries = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            final PhoneNumberTable table = state.table;
+            for (int i = 0; i < keys.length; ++i) {
+                final long key = keys[i];
+                final int slot = i > 0 && keys[i - 1] == key ? -1 : table.slot(key);
+                if (slot < 0) {
+                    continue;
+                }
+                final String phoneNumber = E164.format(key);
+                final Entry entry = new Entry(phoneNumber);
+                if (table.hasAccount(slot)) {
+                    entry.addJid(Jid.of(phoneNumber, domain, null));
+                }
+                table.forEachJid(slot, entry::addJid);
+                entries.add(entry);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    /**
+     * Same as {@link #find(String, Collection)} but looks up phone numbers by their {@link
+     * PhoneNumberHash}. The number of every returned entry is the encoded hash. The first call
+     * hashes every phone number in the index; from then on numbers are hashed as they are added and
+     * on every reload.
+     */
+    public List<Entry> findHashed(final String domain, final long[] hashes) {
+        final List<Entry> entries = new ArrayList<>();
+        final HashSet<Long> found = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            if (!state.table.hasHashIndex()) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    hashed = true;
+                    state.table.indexHashes();
+                    // downgrade
+                    lock.readLock().lock();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            final PhoneNumberTable table = state.table;
+            for (final long hash : hashes) {
+                final long key = table.keyForHash(hash);
+                if (key == 0 || !found.add(hash)) {
+                    continue;
+                }
+                final int slot = table.slot(key);
+                final Entry entry = new Entry(PhoneNumberHash.encode(hash));
+                if (table.hasAccount(slot)) {
+                    entry.addJid(Jid.of("+" + key, domain, null));
+                }
+                table.forEachJid(slot, entry::addJid);
+                entries.add(entry);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    public void accountCreated(final String username) {
+        final long key = key(username);
+        if (key != 0) {
+            RegisteredNumberFilter.getInstance().add(key);
+            mutate(state -> state.setAccount(key, true));
+            joined(key);
+        }
+    }
+
+    public void accountRemoved(final String username) {
+        final long key = key(username);
+        if (key != 0) {
+            mutate(state -> state.setAccount(key, false));
+        }
+    }
+
+    public void entryUpdated(final im.quicksy.server.pojo.Entry entry) {
+        final Jid jid = entry.getJid();
+        final long key =
+                entry.isVerified() && entry.getPhoneNumber() != null
+                        ? key(
+                                PhoneNumberUtil.getInstance()
+                                        .format(
+                                                entry.getPhoneNumber(),
+                                                PhoneNumberUtil.PhoneNumberFormat.E164))
+                        : 0;
+        if (key != 0) {
+            RegisteredNumberFilter.getInstance().add(key);
+        }
+        mutate(
+                state -> {
+                    state.removeDirectoryEntry(jid);
+                    if (key != 0) {
+                        state.putDirectoryEntry(jid, key);
+                    }
+                });
+        if (key != 0) {
+            joined(key);
+        }
+    }
+
+    public void entryDeleted(final Jid jid) {
+        mutate(state -> state.removeDirectoryEntry(jid));
+    }
+
+    private void joined(final long key) {
+        final LongConsumer listener = joinListener;
+        if (listener != null) {
+            listener.accept(key);
+        }
+    }
+
+    private void mutate(final Consumer<State> mutation) {
+        lock.writeLock().lock();
+        try {
+            if (!enabled) {
+                ++invalidations;
+                return;
+            }
+            mutation.accept(state);
+            if (pendingMutations != null) {
+                pendingMutations.add(mutation);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void reload() {
+        final String domain = Configuration.getInstance().getDomain();
+        lock.writeLock().lock();
+        final int expectedSize;
+        try {
+            if (pendingMutations != null) {
+                throw new IllegalStateException("Directory index is already being reloaded");
+            }
+            pendingMutations = new ArrayList<>();
+            expectedSize = Math.max(state.table.size(), 1024);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        final long start = System.nanoTime();
+        final State fresh = new State(expectedSize, null);
+        try {
+            Database.getInstance()
+                    .forEachUser(
+                            domain,
+                            username -> {
+                                final long key = key(username);
+                                if (key != 0) {
+                                    fresh.setAccount(key, true);
+                                }
+                            });
+            Database.getInstance()
+                    .forEachDirectoryUser(
+                            rawEntry -> {
+                                final long key = key(rawEntry.getPhoneNumber());
+                                if (key != 0) {
+                                    fresh.putDirectoryEntry(rawEntry.getJid(), key);
+                                }
+                            });
+            if (hashed) {
+                fresh.table.indexHashes();
+            }
+        } catch (final RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pendingMutations = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        final int size;
+        lock.writeLock().lock();
+        try {
+            for (final Consumer<State> mutation : pendingMutations) {
+                mutation.accept(fresh);
+            }
+            pendingMutations = null;
+            if (loaded) {
+                // whatever differs now has been changed without us noticing (for example accounts
+                // deleted in-band)
+                logDifferences(state.table, fresh.table);
+            } else {
+                changeLog.truncate();
+            }
+            state.changeLog = null;
+            fresh.changeLog = changeLog;
+            state = fresh;
+            loaded = true;
+            // whatever was computed from the database directly is stale as well
+            ++invalidations;
+            size = fresh.table.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LOGGER.info(
+                "loaded "
+                        + size
+                        + " phone numbers into directory index in "
+                        + ((System.nanoTime() - start) / 1_000_000)
+                        + "ms");
+    }
+
+    private void logDifferences(final PhoneNumberTable before, final PhoneNumberTable after) {
+        before.forEachKey(
+                key -> {
+                    if (!before.sameAs(before.slot(key), after, after.slot(key))) {
+                        changeLog.record(key);
+                    }
+                });
+        after.forEachKey(
+                key -> {
+                    if (before.slot(key) < 0) {
+                        changeLog.record(key);
+                    }
+                });
+    }
+
+    private static class State {
+        private final PhoneNumberTable table;
+        private final DirectoryEntries directoryEntries = new DirectoryEntries();
+        private ChangeLog changeLog;
+
+        private State(final int expectedSize, final ChangeLog changeLog) {
+            this.table = new PhoneNumberTable(expectedSize);
+            this.changeLog = changeLog;
+        }
+
+        private void setAccount(final long key, final boolean account) {
+            table.setAccount(key, account);
+            changed(key);
+        }
+
+        private void putDirectoryEntry(final Jid jid, final long key) {
+            directoryEntries.put(jid, key);
+            table.addJid(key, jid);
+            changed(key);
+        }
+
+        private void removeDirectoryEntry(final Jid jid) {
+            final long key = directoryEntries.remove(jid);
+            if (key != 0) {
+                table.removeJid(key, jid);
+                changed(key);
+            }
+        }
+
+        private void changed(final long key) {
+            if (changeLog != null) {
+                changeLog.record(key);
+            }
+        }
+    }
+}
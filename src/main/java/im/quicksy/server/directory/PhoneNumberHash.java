@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.directory;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Longs;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Truncated hash used for contact discovery: the first eight bytes of the SHA-256 of the E.164
+ * representation of a phone number (including the leading +), read as a big-endian long.
+ */
+public final class PhoneNumberHash {
+
+    public static final int LENGTH = Long.BYTES;
+
+    private PhoneNumberHash() {}
+
+    public static long of(final String phoneNumber) {
+        return Longs.fromByteArray(
+                Hashing.sha256().hashString(phoneNumber, StandardCharsets.UTF_8).asBytes());
+    }
+
+    public static long of(final long key) {
+        return of("+" + key);
+    }
+
+    public static String encode(final long hash) {
+        return BaseEncoding.base64().encode(Longs.toByteArray(hash));
+    }
+
+    /**
+     * @param hashes base64 encoded concatenation of hashes
+     * @throws IllegalArgumentException if the input isn't valid base64 or not a multiple of eight
+     *     bytes long
+     */
+    public static long[] decode(final String hashes) {
+        final byte[] bytes =
+                BaseEncoding.base64().decode(CharMatcher.whitespace().removeFrom(hashes));
+        if (bytes.length % LENGTH != 0) {
+            throw new IllegalArgumentException("Hashes must be " + LENGTH + " bytes long");
+        }
+        final LongBuffer buffer = ByteBuffer.wrap(bytes).asLongBuffer();
+        final long[] decoded = new long[buffer.remaining()];
+        buffer.get(decoded);
+        return decoded;
+    }
+}
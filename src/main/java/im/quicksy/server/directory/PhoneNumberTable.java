@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.directory;
+
+import im.quicksy.server.utils.LongIntMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Table of E.164 phone numbers packed into a long. Every row records whether an ejabberd account
+ * exists for that number and which directory jids have verified it. Rows are kept in dense column
+ * arrays and found through a {@link LongIntMap}, so keys are never boxed; the jid column holds
+ * either null, a single {@link Jid} or a {@code Jid[]} for the rare case of multiple directory
+ * entries sharing a number. Once {@link #indexHashes()} has been called a second map finds the row
+ * of a {@link PhoneNumberHash}; until then no number is hashed.
+ *
+ * <p>Slots are row numbers. Removing a row moves the last row into its place, so a slot is only
+ * valid until the next mutation.
+ *
+ * <p>Not thread safe. {@link DirectoryIndex} guards all access.
+ */
+class PhoneNumberTable {
+
+    private static final byte FLAG_ACCOUNT = 1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final LongIntMap slots;
+    private LongIntMap hashes;
+    private long[] keys;
+    private byte[] flags;
+    private Object[] jids;
+    private int size;
+
+    PhoneNumberTable(int expectedSize) {
+        final int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        this.slots = new LongIntMap(expectedSize);
+        this.keys = new long[capacity];
+        this.flags = new byte[capacity];
+        this.jids = new Object[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** @return the slot of the key or a negative number */
+    int slot(final long key) {
+        return slots.get(key);
+    }
+
+    boolean hasHashIndex() {
+        return hashes != null;
+    }
+
+    /** Hashes every number and keeps the hashes of numbers added later on up to date. */
+    void indexHashes() {
+        if (hashes != null) {
+            return;
+        }
+        hashes = new LongIntMap(size);
+        for (int slot = 0; slot < size; ++slot) {
+            hashes.put(PhoneNumberHash.of(keys[slot]), slot);
+        }
+    }
+
+    /**
+     * Requires {@link #indexHashes()} to have been called.
+     *
+     * @return the packed phone number with the given hash or 0
+     */
+    long keyForHash(final long hash) {
+        final int slot = hashes.get(hash);
+        return slot < 0 ? 0 : keys[slot];
+    }
+
+    boolean hasAccount(final int slot) {
+        return (flags[slot] & FLAG_ACCOUNT) != 0;
+    }
+
+    void forEachJid(final int slot, final Consumer<Jid> consumer) {
+        final Object value = jids[slot];
+        if (value instanceof Jid) {
+            consumer.accept((Jid) value);
+        } else if (value != null) {
+            for (Jid jid : (Jid[]) value) {
+                consumer.accept(jid);
+            }
+        }
+    }
+
+    void forEachKey(final LongConsumer consumer) {
+        for (int i = 0; i < size; ++i) {
+            consumer.accept(keys[i]);
+        }
+    }
+
+    boolean sameAs(final int slot, final PhoneNumberTable other, final int otherSlot) {
+        if (otherSlot < 0) {
+            return false;
+        }
+        final Object a = jids[slot];
+        final Object b = other.jids[otherSlot];
+        if (flags[slot] != other.flags[otherSlot]) {
+            return false;
+        } else if (a == null || b == null) {
+            return a == b;
+        } else if (a instanceof Jid || b instanceof Jid) {
+            return a.equals(b);
+        } else {
+            return new HashSet<>(Arrays.asList((Jid[]) a))
+                    .equals(new HashSet<>(Arrays.asList((Jid[]) b)));
+        }
+    }
+
+    void setAccount(final long key, final boolean account) {
+        if (account) {
+            final int slot = insert(key);
+            flags[slot] |= FLAG_ACCOUNT;
+        } else {
+            final int slot = slot(key);
+            if (slot >= 0) {
+                flags[slot] &= ~FLAG_ACCOUNT;
+                removeIfUnused(slot);
+            }
+        }
+    }
+
+    void addJid(final long key, final Jid jid) {
+        final int slot = insert(key);
+        final Object value = jids[slot];
+        if (value == null) {
+            jids[slot] = jid;
+        } else if (value instanceof Jid) {
+            if (!value.equals(jid)) {
+                jids[slot] = new Jid[] {(Jid) value, jid};
+            }
+        } else {
+            final Jid[] existing = (Jid[]) value;
+            if (!Arrays.asList(existing).contains(jid)) {
+                final Jid[] extended = Arrays.copyOf(existing, existing.length + 1);
+                extended[existing.length] = jid;
+                jids[slot] = extended;
+            }
+        }
+    }
+
+    void removeJid(final long key, final Jid jid) {
+        final int slot = slot(key);
+        if (slot < 0) {
+            return;
+        }
+        final Object value = jids[slot];
+        if (value instanceof Jid) {
+            if (value.equals(jid)) {
+                jids[slot] = null;
+            }
+        } else if (value != null) {
+            final Jid[] remaining =
+                    Arrays.stream((Jid[]) value).filter(j -> !j.equals(jid)).toArray(Jid[]::new);
+            jids[slot] = remaining.length == 1 ? remaining[0] : remaining;
+        }
+        removeIfUnused(slot);
+    }
+
+    private int insert(final long key) {
+        final int existing = slots.get(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (key <= 0) {
+            throw new IllegalArgumentException("Invalid phone number key " + key);
+        }
+        if (size == keys.length) {
+            final int capacity = size << 1;
+            keys = Arrays.copyOf(keys, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            jids = Arrays.copyOf(jids, capacity);
+        }
+        final int slot = size++;
+        keys[slot] = key;
+        slots.put(key, slot);
+        if (hashes != null) {
+            hashes.put(PhoneNumberHash.of(key), slot);
+        }
+        return slot;
+    }
+
+    private void removeIfUnused(final int slot) {
+        if (flags[slot] != 0 || jids[slot] != null) {
+            return;
+        }
+        final long key = keys[slot];
+        slots.remove(key);
+        if (hashes != null) {
+            removeHash(PhoneNumberHash.of(key), slot);
+        }
+        final int last = --size;
+        if (slot != last) {
+            final long moved = keys[last];
+            keys[slot] = moved;
+            flags[slot] = flags[last];
+            jids[slot] = jids[last];
+            slots.put(moved, slot);
+            if (hashes != null) {
+                final long hash = PhoneNumberHash.of(moved);
+                if (hashes.get(hash) == last) {
+                    hashes.put(hash, slot);
+                }
+            }
+        }
+        keys[last] = 0;
+        flags[last] = 0;
+        jids[last] = null;
+    }
+
+    private void removeHash(final long hash, final int slot) {
+        // two numbers might share a hash; only the one that has been put last is found by it
+        if (hashes.get(hash) == slot) {
+            hashes.remove(hash);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.directory;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import im.quicksy.server.configuration.Configuration;
+import im.quicksy.server.database.Database;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bloom filter over every phone number that has an account on the Quicksy domain or a verified
+ * directory entry. A lightweight alternative to {@link DirectoryIndex} for deployments that don't
+ * want to keep the full directory in memory: numbers the filter has never seen are guaranteed
+ * misses and don't have to be sent to the database. Numbers are never removed; deleted accounts
+ * linger as false positives until the next {@link #reload()}.
+ */
+public class RegisteredNumberFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegisteredNumberFilter.class);
+
+    private static final RegisteredNumberFilter INSTANCE = new RegisteredNumberFilter();
+
+    // leave room for registrations until the next reload
+    private static final double HEADROOM = 1.25;
+    private static final int MIN_EXPECTED_INSERTIONS = 1024;
+
+    private volatile BloomFilter<Long> filter = null;
+    private List<Long> pending = null;
+
+    RegisteredNumberFilter() {}
+
+    public static RegisteredNumberFilter getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isLoaded() {
+        return filter != null;
+    }
+
+    /** @return false if the packed phone number is definitely not registered */
+    public boolean mightContain(final long key) {
+        final BloomFilter<Long> current = filter;
+        return current == null || current.mightContain(key);
+    }
+
+    synchronized void add(final long key) {
+        if (pending != null) {
+            pending.add(key);
+        }
+        if (filter != null) {
+            filter.put(key);
+        }
+    }
+
+    public void reload() {
+        final String domain = Configuration.getInstance().getDomain();
+        final double falsePositiveProbability =
+                Configuration.getInstance()
+                        .getSynchronization()
+                        .getFilterFalsePositiveProbability();
+        reload(
+                phoneNumbers -> {
+                    Database.getInstance().forEachUser(domain, phoneNumbers);
+                    Database.getInstance()
+                            .forEachDirectoryUser(
+                                    rawEntry -> phoneNumbers.accept(rawEntry.getPhoneNumber()));
+                },
+                falsePositiveProbability);
+    }
+
+    /** @param source hands every registered phone number to the consumer it is called with */
+    void reload(final Consumer<Consumer<String>> source, final double falsePositiveProbability) {
+        synchronized (this) {
+            if (pending != null) {
+                throw new IllegalStateException(
+                        "Registered number filter is already being reloaded");
+            }
+            pending = new ArrayList<>();
+        }
+        final long start = System.nanoTime();
+        final KeyCollector keys = new KeyCollector();
+        try {
+            source.accept(phoneNumber -> keys.add(DirectoryIndex.key(phoneNumber)));
+        } catch (final RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+        final BloomFilter<Long> fresh =
+                BloomFilter.create(
+                        Funnels.longFunnel(),
+                        Math.max(MIN_EXPECTED_INSERTIONS, (long) (keys.size * HEADROOM)),
+                        falsePositiveProbability);
+        for (int i = 0; i < keys.size; ++i) {
+            fresh.put(keys.keys[i]);
+        }
+        synchronized (this) {
+            for (final long key : pending) {
+                fresh.put(key);
+            }
+            pending = null;
+            filter = fresh;
+        }
+        // results served from the database before may be missing changes made by ejabberd
+        DirectoryIndex.getInstance().invalidate();
+        LOGGER.info(
+                "loaded "
+                        + keys.size
+                        + " phone numbers into registered number filter in "
+                        + ((System.nanoTime() - start) / 1_000_000)
+                        + "ms");
+    }
+
+    private static class KeyCollector {
+        private long[] keys = new long[MIN_EXPECTED_INSERTIONS];
+        private int size = 0;
+
+        private void add(final long key) {
+            if (key == 0) {
+                return;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+            }
+            keys[size++] = key;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Distribution of observed values over fixed, cumulative buckets (Prometheus style). */
+public class Histogram {
+
+    public static final long[] MILLISECONDS = {
+        1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000
+    };
+
+    public static final long[] PHONE_BOOK_SIZES = {1, 10, 50, 100, 250, 500, 1_000, 2_048, 4_096};
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(final long... bounds) {
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observe(final long value) {
+        int i = Arrays.binarySearch(bounds, value);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        buckets[i].increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    void render(final String name, final StringBuilder out) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{le=\"");
+            out.append(i < bounds.length ? Long.toString(bounds[i]) : "+Inf");
+            out.append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum ").append(getSum()).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the counters, gauges and histograms the server exposes. {@link #render()} produces
+ * the Prometheus text format.
+ */
+public class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized LongAdder counter(final String name, final String help) {
+        final Metric existing = metrics.get(name);
+        if (existing != null) {
+            return ((Counter) existing).value;
+        }
+        final Counter counter = new Counter(help);
+        metrics.put(name, counter);
+        return counter.value;
+    }
+
+    public synchronized Histogram histogram(
+            final String name, final String help, final long... bounds) {
+        final Metric existing = metrics.get(name);
+        if (existing != null) {
+            return ((HistogramMetric) existing).histogram;
+        }
+        final HistogramMetric metric = new HistogramMetric(help, new Histogram(bounds));
+        metrics.put(name, metric);
+        return metric.histogram;
+    }
+
+    /** Registers a gauge or replaces the supplier of an existing one. */
+    public synchronized void gauge(final String name, final String help, final LongSupplier value) {
+        metrics.put(name, new Gauge(help, "gauge", value));
+    }
+
+    /**
+     * Registers a counter that is kept elsewhere or replaces the supplier of an existing one. The
+     * value must never go down.
+     */
+    public synchronized void counter(
+            final String name, final String help, final LongSupplier value) {
+        metrics.put(name, new Gauge(help, "counter", value));
+    }
+
+    public String render() {
+        final List<Map.Entry<String, Metric>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(metrics.entrySet());
+        }
+        final StringBuilder out = new StringBuilder();
+        for (final Map.Entry<String, Metric> entry : snapshot) {
+            final String name = entry.getKey();
+            final Metric metric = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(metric.type()).append('\n');
+            metric.render(name, out);
+        }
+        return out.toString();
+    }
+
+    private abstract static class Metric {
+        private final String help;
+
+        private Metric(final String help) {
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void render(String name, StringBuilder out);
+    }
+
+    private static class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(final String help) {
+            super(help);
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void render(final String name, final StringBuilder out) {
+            out.append(name).append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    private static class Gauge extends Metric {
+        private final String type;
+        private final LongSupplier value;
+
+        private Gauge(final String help, final String type, final LongSupplier value) {
+            super(help);
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        String type() {
+            return type;
+        }
+
+        @Override
+        void render(final String name, final StringBuilder out) {
+            out.append(name).append(' ').append(value.getAsLong()).append('\n');
+        }
+    }
+
+    private static class HistogramMetric extends Metric {
+        private final Histogram histogram;
+
+        private HistogramMetric(final String help, final Histogram histogram) {
+            super(help);
+            this.histogram = histogram;
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void render(final String name, final StringBuilder out) {
+            histogram.render(name, out);
+        }
+    }
+}
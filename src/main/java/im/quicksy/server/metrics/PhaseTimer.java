@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the phases of a single request. Every phase is recorded in its histogram right away and
+ * remembered so that slow requests can be logged with a break down of where the time went. The
+ * timer of the request a thread is working on is available through {@link #current()}; phases that
+ * run on other threads (for example database queries) have to be handed the timer explicitly.
+ */
+public class PhaseTimer {
+
+    private static final ThreadLocal<PhaseTimer> CURRENT = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    private final StringBuilder phases = new StringBuilder();
+    private long last = start;
+
+    /** Starts a timer and makes it the current one of this thread until {@link #close()}. */
+    public static PhaseTimer start() {
+        final PhaseTimer timer = new PhaseTimer();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /** @return the timer of this thread or a detached one if there is no request being timed */
+    public static PhaseTimer current() {
+        final PhaseTimer timer = CURRENT.get();
+        return timer == null ? new PhaseTimer() : timer;
+    }
+
+    /** Records the time since the previous lap (or the start) as the given phase. */
+    public synchronized void lap(final String phase, final Histogram histogram) {
+        final long now = System.nanoTime();
+        record(phase, histogram, now - last);
+        last = now;
+    }
+
+    public synchronized void record(
+            final String phase, final Histogram histogram, final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        histogram.observe(millis);
+        if (phases.length() > 0) {
+            phases.append(' ');
+        }
+        phases.append(phase).append('=').append(millis).append("ms");
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public void close() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return phases.toString();
+    }
+}
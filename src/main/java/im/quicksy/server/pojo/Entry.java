@@ -17,6 +17,7 @@
 package im.quicksy.server.pojo;
 
 import com.google.i18n.phonenumbers.Phonenumber;
+import im.quicksy.server.utils.PhoneNumberKeys;
 import rocks.xmpp.addr.Jid;
 
 public class Entry {
@@ -35,6 +36,14 @@ public class Entry {
         return phoneNumber;
     }
 
+    public Long getPhoneNumberKey() {
+        if (phoneNumber == null) {
+            return null;
+        }
+        final long key = PhoneNumberKeys.of(phoneNumber);
+        return key == 0 ? null : key;
+    }
+
     public void setPhoneNumber(Phonenumber.PhoneNumber phoneNumber) {
         this.phoneNumber = phoneNumber;
     }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.synchronization;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import im.quicksy.server.configuration.Configuration;
+import im.quicksy.server.xmpp.synchronization.PhoneBookChanged;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.core.stanza.model.Message;
+
+/**
+ * Remembers which phone numbers every user has synchronized last and tells them with a headline
+ * message once one of those numbers gets an account or a verified directory entry, so that clients
+ * don't have to poll for new contacts. Notifications are collected and sent in batches; a user
+ * whose contacts change several times in a row only hears about it once per batch.
+ */
+public class ChangeNotifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeNotifier.class);
+
+    private static ChangeNotifier INSTANCE;
+
+    private final InterestTable interested = new InterestTable();
+    private final Cache<Jid, long[]> phoneBooks;
+    private final LinkedHashSet<Jid> pending = new LinkedHashSet<>();
+    private final LongAdder sent = new LongAdder();
+
+    private volatile XmppSession session;
+
+    public ChangeNotifier(final long capacity, final Duration expiry) {
+        this(capacity, expiry, Ticker.systemTicker());
+    }
+
+    public ChangeNotifier(final long capacity, final Duration expiry, final Ticker ticker) {
+        this.phoneBooks =
+                CacheBuilder.newBuilder()
+                        .ticker(ticker)
+                        // all access is synchronized anyway; a single segment makes the capacity
+                        // exact
+                        .concurrencyLevel(1)
+                        .maximumWeight(capacity)
+                        .<Jid, long[]>weigher((user, phoneNumbers) -> phoneNumbers.length + 1)
+                        .expireAfterAccess(expiry)
+                        .removalListener(this::removed)
+                        .build();
+    }
+
+    public static synchronized ChangeNotifier getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE =
+                    new ChangeNotifier(
+                            Configuration.getInstance().getSynchronization().getPushCapacity(),
+                            Configuration.getInstance().getSynchronization().getPushExpiry());
+        }
+        return INSTANCE;
+    }
+
+    public void start(final XmppSession session, final Duration interval) {
+        this.session = session;
+        final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("change-notifier")
+                                .setDaemon(true)
+                                .build());
+        executor.scheduleWithFixedDelay(
+                this::flush, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** @param phoneNumbers sorted packed phone numbers; not modified afterwards */
+    public synchronized void subscribe(final Jid user, final long[] phoneNumbers) {
+        final long[] previous = phoneBooks.getIfPresent(user);
+        if (previous != null) {
+            if (Arrays.equals(previous, phoneNumbers)) {
+                return;
+            }
+            for (final long phoneNumber : previous) {
+                interested.remove(phoneNumber, user);
+            }
+        } else {
+            // an expired phone book that hasn't been cleaned up yet would otherwise be removed by
+            // put() below, taking the interest in the numbers of the new one with it
+            phoneBooks.invalidate(user);
+        }
+        for (final long phoneNumber : phoneNumbers) {
+            interested.add(phoneNumber, user);
+        }
+        phoneBooks.put(user, phoneNumbers);
+    }
+
+    public synchronized void changed(final long phoneNumber) {
+        interested.forEachUser(phoneNumber, pending::add);
+    }
+
+    /** @return the users that have to be notified since the last call */
+    public synchronized List<Jid> takePending() {
+        final List<Jid> users = new ArrayList<>(pending);
+        pending.clear();
+        return users;
+    }
+
+    public synchronized int getPhoneNumberCount() {
+        return interested.size();
+    }
+
+    public long getSubscriberCount() {
+        return phoneBooks.size();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    private void flush() {
+        try {
+            phoneBooks.cleanUp();
+            final XmppSession session = this.session;
+            final List<Jid> users = takePending();
+            if (session == null || users.isEmpty()) {
+                return;
+            }
+            for (final Jid user : users) {
+                final Message message = new Message(user, Message.Type.HEADLINE);
+                message.addExtension(new PhoneBookChanged());
+                session.sendMessage(message);
+            }
+            sent.add(users.size());
+            LOGGER.info("notified " + users.size() + " users about changed phone books");
+        } catch (RuntimeException e) {
+            LOGGER.error("unable to notify users about changed phone books", e);
+        }
+    }
+
+    private void removed(final RemovalNotification<Jid, long[]> notification) {
+        if (!notification.wasEvicted()) {
+            // replaced values have already been taken care of by subscribe()
+            return;
+        }
+        synchronized (this) {
+            for (final long phoneNumber : notification.getValue()) {
+                interested.remove(phoneNumber, notification.getKey());
+            }
+        }
+    }
+}
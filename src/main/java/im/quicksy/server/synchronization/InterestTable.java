@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.synchronization;
+
+import im.quicksy.server.utils.LongIntMap;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Table from packed phone numbers to the users that have synchronized them. Rows live in two dense
+ * columns and are found through a {@link LongIntMap}, so keys are never boxed; the user column
+ * holds either a single {@link Jid} or a {@code Jid[]} for numbers that are in several phone books.
+ *
+ * <p>Not thread safe. {@link ChangeNotifier} guards all access.
+ */
+class InterestTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final LongIntMap slots = new LongIntMap();
+    private long[] keys = new long[MIN_CAPACITY];
+    private Object[] users = new Object[MIN_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    void forEachUser(final long key, final Consumer<Jid> consumer) {
+        final int slot = slots.get(key);
+        if (slot < 0) {
+            return;
+        }
+        final Object value = users[slot];
+        if (value instanceof Jid) {
+            consumer.accept((Jid) value);
+        } else {
+            for (final Jid user : (Jid[]) value) {
+                consumer.accept(user);
+            }
+        }
+    }
+
+    void add(final long key, final Jid user) {
+        final int slot = insert(key);
+        final Object value = users[slot];
+        if (value == null) {
+            users[slot] = user;
+        } else if (value instanceof Jid) {
+            if (!value.equals(user)) {
+                users[slot] = new Jid[] {(Jid) value, user};
+            }
+        } else {
+            final Jid[] existing = (Jid[]) value;
+            if (!Arrays.asList(existing).contains(user)) {
+                final Jid[] extended = Arrays.copyOf(existing, existing.length + 1);
+                extended[existing.length] = user;
+                users[slot] = extended;
+            }
+        }
+    }
+
+    void remove(final long key, final Jid user) {
+        final int slot = slots.get(key);
+        if (slot < 0) {
+            return;
+        }
+        final Object value = users[slot];
+        if (value instanceof Jid) {
+            if (value.equals(user)) {
+                delete(slot);
+            }
+        } else {
+            final Jid[] remaining =
+                    Arrays.stream((Jid[]) value).filter(u -> !u.equals(user)).toArray(Jid[]::new);
+            users[slot] = remaining.length == 1 ? remaining[0] : remaining;
+        }
+    }
+
+    private int insert(final long key) {
+        final int existing = slots.get(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (key <= 0) {
+            throw new IllegalArgumentException("Invalid phone number key " + key);
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            users = Arrays.copyOf(users, size << 1);
+        }
+        final int slot = size++;
+        keys[slot] = key;
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private void delete(final int slot) {
+        slots.remove(keys[slot]);
+        // the last row takes the place of the deleted one
+        final int last = --size;
+        if (slot != last) {
+            keys[slot] = keys[last];
+            users[slot] = users[last];
+            slots.put(keys[slot], slot);
+        }
+        keys[last] = 0;
+        users[last] = null;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.synchronization;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Remembers the last result computed for a user and the set of phone numbers they submitted.
+ * Results are tagged with the directory generation they were computed at and are only handed out
+ * again as long as that generation is still current.
+ */
+public class ResultCache {
+
+    private final Cache<Key, Result> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResultCache(final long maximumSize, final Duration expiry) {
+        this.cache =
+                CacheBuilder.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterWrite(expiry)
+                        .recordStats()
+                        .build();
+    }
+
+    public static Key key(final Jid user, final Collection<String> phoneNumbers) {
+        final long[] keys = new long[phoneNumbers.size()];
+        int count = 0;
+        for (final String phoneNumber : phoneNumbers) {
+            final long key = E164.pack(phoneNumber);
+            if (key != 0) {
+                keys[count++] = key;
+            }
+        }
+        final long[] sorted = Arrays.copyOf(keys, count);
+        Arrays.sort(sorted);
+        return key(user, sorted);
+    }
+
+    /** @param phoneNumbers sorted packed phone numbers; duplicates are ignored */
+    public static Key key(final Jid user, final long[] phoneNumbers) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (int i = 0; i < phoneNumbers.length; ++i) {
+            if (i == 0 || phoneNumbers[i] != phoneNumbers[i - 1]) {
+                hasher.putLong(phoneNumbers[i]);
+            }
+        }
+        return new Key(user, hasher.hash());
+    }
+
+    public Result get(final Key key, final long generation) {
+        final Result result = cache.getIfPresent(key);
+        if (result != null && result.generation == generation) {
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(final Key key, final Result result) {
+        cache.put(key, result);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public static class Key {
+        private final Jid user;
+        private final HashCode fingerprint;
+
+        private Key(final Jid user, final HashCode fingerprint) {
+            this.user = user;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return user.equals(key.user) && fingerprint.equals(key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, fingerprint);
+        }
+    }
+
+    public static class Result {
+        private final long generation;
+        private final long sequence;
+        private final String ver;
+        private final List<Entry> entries;
+
+        /**
+         * @param sequence the directory sequence read before the entries were looked up; see
+         *     {@link im.quicksy.server.directory.DirectoryIndex#getSequence()}
+         */
+        public Result(
+                final long generation,
+                final long sequence,
+                final String ver,
+                final List<Entry> entries) {
+            this.generation = generation;
+            this.sequence = sequence;
+            this.ver = ver;
+            this.entries = Collections.unmodifiableList(entries);
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getVer() {
+            return ver;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.synchronization;
+
+import im.quicksy.server.directory.DirectoryIndex;
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * The set of phone numbers a user has submitted with their last synchronization, stored as sorted
+ * packed E.164 keys. Numbers that can not be packed (missing leading +, too long) are dropped
+ * since they can never match an account or a directory entry. Once the result has been computed
+ * the snapshot also remembers its ver and the directory sequence it was computed at.
+ */
+public class Snapshot {
+
+    private final Jid owner;
+    private final long[] phoneNumbers;
+    private final String ver;
+    private final long sequence;
+
+    private Snapshot(
+            final Jid owner, final long[] phoneNumbers, final String ver, final long sequence) {
+        this.owner = owner;
+        this.phoneNumbers = phoneNumbers;
+        this.ver = ver;
+        this.sequence = sequence;
+    }
+
+    public static Snapshot empty(final Jid owner) {
+        return new Snapshot(owner, new long[0], null, -1);
+    }
+
+    public Jid getOwner() {
+        return owner;
+    }
+
+    public String getVer() {
+        return ver;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Snapshot withResult(final String ver, final long sequence) {
+        return new Snapshot(owner, phoneNumbers, ver, sequence);
+    }
+
+    /** @return true if the client still has the result that was computed for this snapshot */
+    public boolean hasVer(final String ver) {
+        return this.ver != null && this.ver.equals(ver);
+    }
+
+    public boolean contains(final long phoneNumber) {
+        return Arrays.binarySearch(phoneNumbers, phoneNumber) >= 0;
+    }
+
+    public int size() {
+        return phoneNumbers.length;
+    }
+
+    public Snapshot apply(final Collection<String> added, final Collection<String> removed) {
+        final long[] additions = keys(added);
+        final long[] removals = keys(removed);
+        final long[] merged = new long[phoneNumbers.length + additions.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < phoneNumbers.length || j < additions.length) {
+            final long next;
+            if (j == additions.length
+                    || (i < phoneNumbers.length && phoneNumbers[i] <= additions[j])) {
+                next = phoneNumbers[i++];
+            } else {
+                next = additions[j++];
+            }
+            if ((count == 0 || merged[count - 1] != next)
+                    && Arrays.binarySearch(removals, next) < 0) {
+                merged[count++] = next;
+            }
+        }
+        return new Snapshot(owner, Arrays.copyOf(merged, count), null, -1);
+    }
+
+    public List<String> difference(final Snapshot other) {
+        final List<String> difference = new ArrayList<>();
+        int j = 0;
+        for (final long phoneNumber : phoneNumbers) {
+            while (j < other.phoneNumbers.length && other.phoneNumbers[j] < phoneNumber) {
+                ++j;
+            }
+            if (j == other.phoneNumbers.length || other.phoneNumbers[j] != phoneNumber) {
+                difference.add(format(phoneNumber));
+            }
+        }
+        return difference;
+    }
+
+    /**
+     * @param entries the complete result for this snapshot
+     * @param changes packed phone numbers that changed in the directory since the previous result
+     * @param added phone numbers that are new in this snapshot
+     * @return the entries the client has to update; changed numbers without an entry are returned
+     *     empty so the client drops them
+     */
+    public List<Entry> changedEntries(
+            final List<Entry> entries, final long[] changes, final List<String> added) {
+        final HashMap<String, Entry> entryMap = new HashMap<>();
+        for (final Entry entry : entries) {
+            entryMap.put(entry.getNumber(), entry);
+        }
+        final List<Entry> changed = new ArrayList<>();
+        for (final long key : changes) {
+            if (contains(key)) {
+                final String phoneNumber = format(key);
+                final Entry entry = entryMap.remove(phoneNumber);
+                changed.add(entry == null ? new Entry(phoneNumber) : entry);
+            }
+        }
+        for (final String phoneNumber : added) {
+            final Entry entry = entryMap.remove(phoneNumber);
+            if (entry != null) {
+                changed.add(entry);
+            }
+        }
+        return changed;
+    }
+
+    /** @return the sorted packed phone numbers; not to be modified */
+    public long[] getPhoneNumberKeys() {
+        return phoneNumbers;
+    }
+
+    public List<String> getPhoneNumbers() {
+        final List<String> numbers = new ArrayList<>(phoneNumbers.length);
+        for (final long phoneNumber : phoneNumbers) {
+            numbers.add(format(phoneNumber));
+        }
+        return numbers;
+    }
+
+    public static String format(final long key) {
+        return E164.format(key);
+    }
+
+    private static long[] keys(final Collection<String> phoneNumbers) {
+        final long[] keys = new long[phoneNumbers.size()];
+        int count = 0;
+        for (final String phoneNumber : phoneNumbers) {
+            final long key = phoneNumber == null ? 0 : DirectoryIndex.key(phoneNumber);
+            if (key != 0) {
+                keys[count++] = key;
+            }
+        }
+        final long[] sorted = Arrays.copyOf(keys, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.throttle;
+
+import java.time.Duration;
+
+/**
+ * Adaptive limit on the number of concurrent operations against a shared resource (additive
+ * increase, multiplicative decrease). Every operation that completes within the target latency
+ * raises the limit by roughly one per limit's worth of operations; every operation that was slower
+ * or failed cuts it by {@link #BACKOFF_RATIO}. Operations over the limit are rejected with a
+ * retry hint derived from the observed latency.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double SMOOTHING = 0.1;
+    private static final Duration MIN_RETRY_INTERVAL = Duration.ofSeconds(1);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatency;
+
+    private double limit;
+    private int inFlight = 0;
+    private double averageLatency = 0;
+    private long rejected = 0;
+
+    public ConcurrencyLimiter(
+            final int minLimit, final int maxLimit, final Duration targetLatency) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatency = targetLatency.toNanos();
+        this.limit = minLimit;
+    }
+
+    public synchronized Permit acquire() throws RetryInException {
+        if (inFlight >= (int) limit) {
+            ++rejected;
+            throw new RetryInException(retryInterval());
+        }
+        ++inFlight;
+        return new Permit(System.nanoTime());
+    }
+
+    private Duration retryInterval() {
+        final Duration latency = Duration.ofNanos((long) (averageLatency * 2));
+        final long seconds = latency.getSeconds() + (latency.getNano() > 0 ? 1 : 0);
+        final Duration interval = Duration.ofSeconds(seconds);
+        return interval.compareTo(MIN_RETRY_INTERVAL) < 0 ? MIN_RETRY_INTERVAL : interval;
+    }
+
+    private synchronized void complete(final long latency, final boolean failed) {
+        --inFlight;
+        averageLatency =
+                averageLatency == 0
+                        ? latency
+                        : averageLatency * (1 - SMOOTHING) + latency * SMOOTHING;
+        if (failed || latency > targetLatency) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    public class Permit {
+        private final long start;
+        private boolean released = false;
+
+        private Permit(final long start) {
+            this.start = start;
+        }
+
+        /** Marks the operation as completed; its latency is taken into account. */
+        public void release() {
+            complete(false);
+        }
+
+        /** Marks the operation as failed or timed out; the limit will be lowered. */
+        public void drop() {
+            complete(true);
+        }
+
+        private void complete(final boolean failed) {
+            synchronized (ConcurrencyLimiter.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                ConcurrencyLimiter.this.complete(System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    public static class RetryInException extends Exception {
+        private final Duration duration;
+
+        private RetryInException(Duration duration) {
+            this.duration = duration;
+        }
+
+        public Duration getInterval() {
+            return duration;
+        }
+
+        @Override
+        public String getMessage() {
+            return "Too many concurrent requests. Retry in " + duration.toString();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.throttle;
+
+import java.util.List;
+
+/**
+ * Storage for attempt counters that is shared by all Quicksy nodes. Counters are identified by the
+ * limiter, the entity and the fixed window (period and start in milliseconds since the epoch) they
+ * count attempts in.
+ */
+public interface CounterStore {
+
+    /**
+     * Adds every increment atomically.
+     *
+     * @return the totals of all nodes after the increments have been added, in the same order
+     */
+    long[] add(List<Increment> increments);
+
+    /** Removes the counters of windows that have ended before the given time. */
+    void purge(long now);
+
+    final class Increment {
+        private final String limiter;
+        private final String entity;
+        private final long period;
+        private final long started;
+        private final long delta;
+
+        public Increment(
+                final String limiter,
+                final String entity,
+                final long period,
+                final long started,
+                final long delta) {
+            this.limiter = limiter;
+            this.entity = entity;
+            this.period = period;
+            this.started = started;
+            this.delta = delta;
+        }
+
+        public String getLimiter() {
+            return limiter;
+        }
+
+        public String getEntity() {
+            return entity;
+        }
+
+        public long getPeriod() {
+            return period;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getDelta() {
+            return delta;
+        }
+
+        public long getExpires() {
+            return started + period;
+        }
+    }
+}
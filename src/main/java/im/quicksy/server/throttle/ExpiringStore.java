@@ -0,0 +1,348 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.throttle;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import im.quicksy.server.metrics.Metrics;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Per key state of a limiter. Every key is scheduled on a {@link TimingWheel} at the time its state
+ * expires; a background thread advances the wheel once a second and drops the keys that have
+ * expired for good. States that have been extended in the meantime are rescheduled, so attempts
+ * only touch the wheel when they create a new key.
+ *
+ * <p>Once more than the maximum number of keys are tracked the key that has gone the longest
+ * without being scheduled is evicted. Keys are queued in the order they are scheduled in, so that
+ * is the head of the queue unless its state has been extended since, in which case it goes to the
+ * back of the queue once. The keys of a store share their windows, so this is the key that expires
+ * next or close to it; it carries the least throttling information and forgetting it lets that key
+ * start over. Evicting a key takes constant time no matter how many keys expire at the same time.
+ */
+class ExpiringStore<K, V extends ExpiringStore.State> {
+
+    private static final long TICK = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ScheduledExecutorService EXPIRY =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("throttle-expiry")
+                            .setDaemon(true)
+                            .build());
+
+    private final ConcurrentHashMap<K, V> states = new ConcurrentHashMap<>();
+    private final TimingWheel<V> wheel = new TimingWheel<>(TICK, System.nanoTime());
+    // guarded by wheel
+    private State oldest;
+    private State newest;
+    private final Supplier<V> factory;
+    private final int maxKeys;
+    private final LongAdder evicted;
+
+    ExpiringStore(final String name, final int maxKeys, final Supplier<V> factory) {
+        this.factory = factory;
+        this.maxKeys = maxKeys;
+        if (name == null) {
+            this.evicted = new LongAdder();
+        } else {
+            this.evicted =
+                    Metrics.getInstance()
+                            .counter(
+                                    "quicksy_throttle_" + name + "_evicted_total",
+                                    "Keys evicted because the limiter was full");
+            Metrics.getInstance()
+                    .gauge("quicksy_throttle_" + name + "_keys", "Keys tracked", this::size);
+        }
+        // limiters created in tests come and go; don't keep them alive
+        final WeakReference<ExpiringStore<K, V>> reference = new WeakReference<>(this);
+        final ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] =
+                EXPIRY.scheduleWithFixedDelay(
+                        () -> {
+                            final ExpiringStore<K, V> store = reference.get();
+                            if (store == null) {
+                                task[0].cancel(false);
+                            } else {
+                                store.expire(System.nanoTime());
+                            }
+                        },
+                        1,
+                        1,
+                        TimeUnit.SECONDS);
+    }
+
+    /** Runs the update with the state of the key locked, creating the state if necessary. */
+    <X extends Exception> void update(final K key, final Update<V, X> update) throws X {
+        boolean created = false;
+        try {
+            while (true) {
+                final V state = states.computeIfAbsent(key, k -> factory.get());
+                synchronized (state) {
+                    if (state.removed) {
+                        // lost the race against expiry or eviction; try again with a new one
+                        continue;
+                    }
+                    try {
+                        update.apply(state, System.nanoTime());
+                    } finally {
+                        if (state.key == null) {
+                            state.key = key;
+                            created = true;
+                            schedule(state);
+                        }
+                    }
+                    return;
+                }
+            }
+        } finally {
+            if (created && states.size() > maxKeys) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * @return the current state of the key without locking it or null. The state may be removed
+     *     concurrently.
+     */
+    V peek(final K key) {
+        return states.get(key);
+    }
+
+    /** Restores the state of a key that isn't tracked yet unless it has expired already. */
+    void restore(final K key, final V state) {
+        if (state.deadline() <= System.nanoTime()) {
+            return;
+        }
+        synchronized (state) {
+            if (states.putIfAbsent(key, state) != null) {
+                return;
+            }
+            state.key = key;
+            schedule(state);
+        }
+        if (states.size() > maxKeys) {
+            evict();
+        }
+    }
+
+    /** Visits every key with its state locked. */
+    <X extends Exception> void forEach(final Visitor<K, V, X> visitor) throws X {
+        for (final Map.Entry<K, V> entry : states.entrySet()) {
+            final V state = entry.getValue();
+            synchronized (state) {
+                if (!state.removed) {
+                    visitor.visit(entry.getKey(), state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the state of every key with the one the replacement returns for it unless that is
+     * null. Called with the state locked; states that are also updated without the lock have to
+     * make sure that no such update succeeds once they have been replaced.
+     */
+    void replaceAll(final Replacement<V> replacement) {
+        for (final Map.Entry<K, V> entry : states.entrySet()) {
+            final V state = entry.getValue();
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                final long now = System.nanoTime();
+                final V replaced = replacement.apply(state, now);
+                if (replaced == null) {
+                    continue;
+                }
+                // stays on the wheel until it is due; expiry skips it
+                state.removed = true;
+                unqueue(state);
+                if (replaced.deadline() <= now) {
+                    states.remove(entry.getKey(), state);
+                    continue;
+                }
+                synchronized (replaced) {
+                    replaced.key = entry.getKey();
+                    states.replace(entry.getKey(), state, replaced);
+                    schedule(replaced);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return states.size();
+    }
+
+    long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    void expire(final long now) {
+        final List<V> due = new ArrayList<>();
+        synchronized (wheel) {
+            wheel.advance(now, due::add);
+        }
+        for (final V state : due) {
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                if (!remove(state, now)) {
+                    schedule(state);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evict() {
+        while (states.size() > maxKeys) {
+            final V state;
+            synchronized (wheel) {
+                state = (V) oldest;
+            }
+            if (state == null) {
+                return;
+            }
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                final long deadline = state.deadline();
+                if (deadline > state.scheduled + TICK) {
+                    // has been extended since it was queued; it might not be next after all. Only
+                    // requeue it; the wheel reschedules it once its old deadline comes around
+                    state.scheduled = deadline;
+                    synchronized (wheel) {
+                        unqueue(state);
+                        enqueue(state);
+                    }
+                } else {
+                    remove(state, Long.MAX_VALUE);
+                    evicted.increment();
+                }
+            }
+        }
+    }
+
+    /** Must be called with the state locked. */
+    private void schedule(final V state) {
+        final long deadline = state.deadline();
+        state.scheduled = deadline;
+        synchronized (wheel) {
+            wheel.schedule(state, deadline);
+            unqueue(state);
+            enqueue(state);
+        }
+    }
+
+    /** Must be called with the state locked. */
+    private boolean remove(final V state, final long now) {
+        if (!state.retire(now)) {
+            return false;
+        }
+        synchronized (wheel) {
+            unqueue(state);
+        }
+        states.remove(state.key, state);
+        return true;
+    }
+
+    /** Must be called with the wheel locked. */
+    private void enqueue(final State state) {
+        state.older = newest;
+        state.newer = null;
+        if (newest == null) {
+            oldest = state;
+        } else {
+            newest.newer = state;
+        }
+        newest = state;
+        state.queued = true;
+    }
+
+    /** Must be called with the wheel locked. */
+    private void unqueue(final State state) {
+        if (!state.queued) {
+            return;
+        }
+        if (state.older == null) {
+            oldest = state.newer;
+        } else {
+            state.older.newer = state.newer;
+        }
+        if (state.newer == null) {
+            newest = state.older;
+        } else {
+            state.newer.older = state.older;
+        }
+        state.older = null;
+        state.newer = null;
+        state.queued = false;
+    }
+
+    abstract static class State {
+        // set once the state has been scheduled for the first time
+        Object key;
+        long scheduled;
+        boolean removed = false;
+        // eviction queue, guarded by the wheel of the store
+        private State older;
+        private State newer;
+        private boolean queued = false;
+
+        /** @return the time after which this state no longer affects any attempt */
+        abstract long deadline();
+
+        /**
+         * Marks the state as removed unless it is still needed at the given time. Called with the
+         * state locked; states that are also updated without the lock have to make sure that no
+         * such update succeeds once they have been retired.
+         */
+        boolean retire(final long now) {
+            if (deadline() > now) {
+                return false;
+            }
+            removed = true;
+            return true;
+        }
+    }
+
+    interface Update<V, X extends Exception> {
+        void apply(V state, long now) throws X;
+    }
+
+    interface Replacement<V> {
+        V apply(V state, long now);
+    }
+
+    interface Visitor<K, V, X extends Exception> {
+        void visit(K key, V state) throws X;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.throttle;
+
+import com.google.common.net.InetAddresses;
+import java.net.InetAddress;
+import java.util.function.Function;
+
+/** Turns the entities of a limiter into strings and back so that they can be snapshotted. */
+public final class KeyCodec<T> {
+
+    public static final KeyCodec<String> STRING = of(Function.identity(), Function.identity());
+
+    public static final KeyCodec<InetAddress> INET_ADDRESS =
+            of(InetAddresses::toAddrString, InetAddresses::forString);
+
+    private final Function<T, String> encoder;
+    private final Function<String, T> decoder;
+
+    private KeyCodec(final Function<T, String> encoder, final Function<String, T> decoder) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    /**
+     * @param decoder may throw a runtime exception for strings it can't decode; entries with such
+     *     keys are skipped on restore
+     */
+    public static <T> KeyCodec<T> of(
+            final Function<T, String> encoder, final Function<String, T> decoder) {
+        return new KeyCodec<>(encoder, decoder);
+    }
+
+    String encode(final T key) {
+        return encoder.apply(key);
+    }
+
+    T decode(final String key) {
+        return decoder.apply(key);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.throttle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the state of named limiters to a file and restores it, so that restarts neither reset the
+ * limits nor let everyone in at once. Timestamps are stored as milliseconds since the epoch and
+ * states that have expired in the meantime are dropped on restore.
+ *
+ * <p>The file starts with a magic number, a version and the number of sections. Every limiter has a
+ * section with its name, its entries and a zero. An entry is its length, the key and the state in
+ * the format of the limiter; the length allows sections of limiters that no longer exist to be
+ * skipped. Strings are stored as their length followed by UTF-8. Snapshots are written through a
+ * buffer next to their destination and moved into place once complete; they are restored from a
+ * memory mapped file.
+ */
+public class LimiterSnapshot {
+
+    private static final int MAGIC = 0x51544c53;
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final Map<String, Section> sections = new LinkedHashMap<>();
+
+    public LimiterSnapshot(final File file) {
+        this.file = file;
+    }
+
+    public <T> LimiterSnapshot add(final RateLimiter<T> limiter, final KeyCodec<T> codec) {
+        return add(
+                limiter.getName(),
+                writer -> limiter.save(writer, codec),
+                reader -> limiter.restore(reader, codec));
+    }
+
+    public <E> LimiterSnapshot add(final VolumeLimiter<E, ?> limiter, final KeyCodec<E> codec) {
+        return add(
+                limiter.getName(),
+                writer -> limiter.save(writer, codec),
+                reader -> limiter.restore(reader, codec));
+    }
+
+    private synchronized LimiterSnapshot add(
+            final String name, final Saver saver, final Restorer restorer) {
+        if (name == null) {
+            throw new IllegalArgumentException("Only named limiters can be snapshotted");
+        }
+        if (sections.putIfAbsent(name, new Section(saver, restorer)) != null) {
+            throw new IllegalArgumentException("Limiter " + name + " has already been added");
+        }
+        return this;
+    }
+
+    /** @return the number of entries that have been saved */
+    public synchronized int save() throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        final Writer writer;
+        try (FileChannel channel =
+                FileChannel.open(
+                        temporary.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer = new Writer(channel);
+            writer.header(MAGIC, VERSION, sections.size());
+            for (final Map.Entry<String, Section> section : sections.entrySet()) {
+                writer.beginSection(section.getKey());
+                section.getValue().saver.save(writer);
+                writer.endSection();
+            }
+            writer.flush();
+        }
+        Files.move(
+                temporary.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return writer.count;
+    }
+
+    /** @return the number of entries that have been read or 0 if there is no snapshot */
+    public synchronized int restore() throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (final NoSuchFileException e) {
+            return 0;
+        }
+        final Reader reader = new Reader(buffer);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a limiter snapshot");
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; ++i) {
+                final Section section = sections.get(reader.readString());
+                if (section == null) {
+                    reader.skipSection();
+                } else {
+                    section.restorer.restore(reader);
+                }
+            }
+        } catch (final BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(file + " is truncated or corrupt", e);
+        }
+        return reader.count;
+    }
+
+    private static class Section {
+        private final Saver saver;
+        private final Restorer restorer;
+
+        private Section(final Saver saver, final Restorer restorer) {
+            this.saver = saver;
+            this.restorer = restorer;
+        }
+    }
+
+    private interface Saver {
+        void save(Writer writer) throws IOException;
+    }
+
+    private interface Restorer {
+        void restore(Reader reader) throws IOException;
+    }
+
+    /** Writes the entries of one section and converts {@link System#nanoTime()} timestamps. */
+    static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer entry = ByteBuffer.allocate(256);
+        private final long nanos = System.nanoTime();
+        private final long millis = System.currentTimeMillis();
+        private int count = 0;
+
+        private Writer(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        <T> void begin(final KeyCodec<T> codec, final T key) {
+            entry.clear();
+            final byte[] bytes = codec.encode(key).getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            reserve(bytes.length);
+            entry.put(bytes);
+        }
+
+        void writeInt(final int value) {
+            reserve(Integer.BYTES);
+            entry.putInt(value);
+        }
+
+        void writeLong(final long value) {
+            reserve(Long.BYTES);
+            entry.putLong(value);
+        }
+
+        void end() throws IOException {
+            entry.flip();
+            ensureRemaining(Integer.BYTES + entry.remaining());
+            out.putInt(entry.remaining());
+            if (out.remaining() < entry.remaining()) {
+                // larger than the buffer; the length has been flushed already
+                flush();
+                write(entry);
+            } else {
+                out.put(entry);
+            }
+            ++count;
+        }
+
+        long toEpochMillis(final long nanoTime) {
+            return millis + TimeUnit.NANOSECONDS.toMillis(nanoTime - nanos);
+        }
+
+        private void reserve(final int length) {
+            if (entry.remaining() < length) {
+                final ByteBuffer grown =
+                        ByteBuffer.allocate(
+                                Math.max(entry.capacity() * 2, entry.position() + length));
+                entry.flip();
+                entry = grown.put(entry);
+            }
+        }
+
+        private void header(final int magic, final int version, final int sections) {
+            out.putInt(magic).putInt(version).putInt(sections);
+        }
+
+        private void beginSection(final String name) throws IOException {
+            final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(Integer.BYTES + bytes.length);
+            out.putInt(bytes.length).put(bytes);
+        }
+
+        private void endSection() throws IOException {
+            ensureRemaining(Integer.BYTES);
+            out.putInt(0);
+        }
+
+        private void ensureRemaining(final int length) throws IOException {
+            if (out.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            write(out);
+            out.clear();
+        }
+
+        private void write(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /** Reads the entries of one section and converts timestamps to {@link System#nanoTime()}. */
+    static final class Reader {
+        private final ByteBuffer in;
+        private final long nanos = System.nanoTime();
+        private final long millis = System.currentTimeMillis();
+        private byte[] bytes = new byte[64];
+        // where the current entry ends or -1 between entries
+        private int end = -1;
+        private int count = 0;
+
+        private Reader(final ByteBuffer in) {
+            this.in = in;
+        }
+
+        /**
+         * Moves on to the next entry whose key can be decoded. Its state can then be read with the
+         * other methods.
+         *
+         * @return the key or null at the end of the section
+         */
+        <T> T next(final KeyCodec<T> codec) throws IOException {
+            while (true) {
+                if (end >= 0) {
+                    in.position(end);
+                }
+                final int length = in.getInt();
+                if (length == 0) {
+                    end = -1;
+                    return null;
+                }
+                if (length < 0 || length > in.remaining()) {
+                    throw new IOException("Invalid entry length " + length);
+                }
+                end = in.position() + length;
+                final String key = readString();
+                try {
+                    final T decoded = codec.decode(key);
+                    ++count;
+                    return decoded;
+                } catch (final RuntimeException e) {
+                    // the entity can no longer be represented; skip the entry
+                }
+            }
+        }
+
+        int readInt() {
+            return in.getInt();
+        }
+
+        /** Reads the number of elements of the given size that follow. */
+        int readCount(final int size) throws IOException {
+            final int count = in.getInt();
+            if (count < 0 || (long) count * size > in.remaining()) {
+                throw new IOException("Invalid element count " + count);
+            }
+            return count;
+        }
+
+        long readLong() {
+            return in.getLong();
+        }
+
+        long toNanoTime(final long epochMillis) {
+            return nanos + TimeUnit.MILLISECONDS.toNanos(epochMillis - millis);
+        }
+
+        private String readString() throws IOException {
+            final int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new IOException("Invalid string length " + length);
+            }
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private void skipSection() throws IOException {
+            int length;
+            while ((length = in.getInt()) != 0) {
+                if (length < 0 || length > in.remaining()) {
+                    throw new IOException("Invalid entry length " + length);
+                }
+                in.position(in.position() + length);
+            }
+        }
+    }
+}
@@ -16,34 +16,31 @@
 
 package im.quicksy.server.throttle;
 
-import java.time.Duration;
-import java.util.List;
+import im.quicksy.server.utils.LongIntMap;
 
-public class VolumeAttempt<E, T> {
-
-    private final List<T> whats;
-    private final E who;
-    private final long expires;
+/**
+ * Set of longs on top of a {@link LongIntMap} whose values are ignored.
+ *
+ * <p>Not thread safe. {@link VolumeLimiter} guards all access.
+ */
+class LongSet {
 
-    public VolumeAttempt(E who, List<T> whats, long expires) {
-        this.who = who;
-        this.whats = whats;
-        this.expires = expires;
-    }
+    private final LongIntMap keys = new LongIntMap();
 
-    public boolean expired(long now) {
-        return expires <= now;
+    int size() {
+        return keys.size();
     }
 
-    public Duration expiresIn(long now) {
-        return Duration.ofNanos(expires - now);
+    boolean contains(final long key) {
+        return keys.get(key) != LongIntMap.MISSING;
     }
 
-    public E getWho() {
-        return who;
+    /** @return true if the key wasn't in the set before */
+    boolean add(final long key) {
+        return keys.put(key, 0) == LongIntMap.MISSING;
     }
 
-    public List<T> getWhats() {
-        return whats;
+    void remove(final long key) {
+        keys.remove(key);
     }
 }
@@ -16,54 +16,470 @@
 
 package im.quicksy.server.throttle;
 
+import java.io.IOException;
 import java.time.Duration;
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+/**
+ * Sliding window limit on the number of attempts per entity. Every entity has a ring buffer with
+ * the timestamps of its most recent attempts, holding as many as the most generous strategy allows.
+ * Attempts are only recorded if no strategy rejects them, so a window never contains more attempts
+ * than its strategy allows and the n-th most recent attempt is the oldest one that counts towards
+ * it. Entities are locked individually and expire in the background once they have no attempts
+ * inside the longest window; see {@link ExpiringStore} for what happens when there are too many.
+ *
+ * <p>{@link Strategy#gcra(Duration, int) GCRA strategies} only keep the theoretical arrival time of
+ * the next attempt. A limiter whose only strategy is a GCRA strategy keeps nothing else per entity
+ * and checks attempts with a single compare and set instead of locking the entity.
+ *
+ * <p>Limiters that are given {@link SharedCounters} additionally count attempts in fixed windows
+ * shared with the other nodes. Attempts have to pass both the local and the shared check.
+ */
 public class RateLimiter<T> {
 
-    private final HashMap<Strategy, LinkedList<Attempt<T>>> storage = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final long[] NO_TIMESTAMPS = new long[0];
 
-    private final Strategy[] strategies;
+    private final ExpiringStore<T, Entry> entries;
 
-    private RateLimiter(Strategy[] strategies) {
-        Arrays.sort(strategies, (a, b) -> b.getDuration().compareTo(a.getDuration()));
-        this.strategies = strategies;
+    private final String name;
+
+    private final SharedCounters shared;
+
+    private volatile Limits limits;
+
+    private RateLimiter(
+            final String name,
+            final int maxKeys,
+            final SharedCounters shared,
+            final Strategy[] strategies) {
+        this.name = name;
+        this.shared = shared;
+        this.limits = new Limits(strategies, shared != null);
+        this.entries = new ExpiringStore<>(name, maxKeys, () -> limits.create());
     }
 
     public static <T> RateLimiter<T> of(Strategy... strategies) {
-        return new RateLimiter<T>(strategies);
-    }
-
-    public synchronized void attempt(final T entity) throws RetryInException {
-        final long now = System.nanoTime();
-        check(entity, now);
-        for (Strategy strategy : strategies) {
-            storage.computeIfAbsent(strategy, k -> new LinkedList<>())
-                    .addLast(Attempt.create(entity, strategy.getDuration().toNanos() + now));
-        }
-    }
-
-    private void check(T entity, final long now) throws RetryInException {
-        for (Strategy strategy : strategies) {
-            final LinkedList<Attempt<T>> list =
-                    storage.computeIfAbsent(strategy, k -> new LinkedList<>());
-            final Iterator<Attempt<T>> iterator = list.iterator();
-            int entityCount = 0;
-            Attempt<T> firstAttempt = null;
-            while (iterator.hasNext()) {
-                Attempt<T> attempt = iterator.next();
-                if (attempt.expired(now)) {
-                    iterator.remove();
-                } else {
-                    if (entity.equals(attempt.getEntity())) {
-                        ++entityCount;
-                        if (firstAttempt == null) {
-                            firstAttempt = attempt;
-                        }
-                        if (entityCount >= strategy.getAttempts()) {
-                            throw new RetryInException(firstAttempt.expiresIn(now), entity);
-                        }
+        return new RateLimiter<T>(null, Integer.MAX_VALUE, null, strategies);
+    }
+
+    /**
+     * @param name used to export the number of tracked entities as quicksy_throttle_NAME_keys
+     * @param maxKeys the maximum number of entities to track
+     */
+    public static <T> RateLimiter<T> of(
+            final String name, final int maxKeys, final Strategy... strategies) {
+        return new RateLimiter<T>(name, maxKeys, null, strategies);
+    }
+
+    /** @param shared the counters to share attempts with the other nodes through */
+    public static <T> RateLimiter<T> of(
+            final String name,
+            final int maxKeys,
+            final SharedCounters shared,
+            final Strategy... strategies) {
+        return new RateLimiter<T>(name, maxKeys, shared, strategies);
+    }
+
+    /**
+     * Replaces the strategies without forgetting what the entities have done so far. The recent
+     * attempts of an entity count towards the new window strategies and are replayed for new GCRA
+     * strategies; GCRA strategies whose attempts have changed keep the entity as many attempts
+     * ahead of the sustained rate as before. Entities that are created while the strategies change
+     * might keep the old ones until they expire.
+     */
+    public synchronized void setStrategies(final Strategy... strategies) {
+        final Limits limits = new Limits(strategies, shared != null);
+        if (Arrays.equals(limits.strategies, this.limits.strategies)) {
+            return;
+        }
+        this.limits = limits;
+        entries.replaceAll(
+                (entry, now) -> entry.limits == limits ? null : entry.replace(limits, now));
+    }
+
+    public void attempt(final T entity) throws RetryInException {
+        if (limits.lockFree) {
+            final Entry entry = entries.peek(entity);
+            if (entry instanceof Cell && ((Cell) entry).attempt(entity, System.nanoTime())) {
+                return;
+            }
+        }
+        entries.update(
+                entity,
+                (entry, now) -> {
+                    if (entry instanceof Cell) {
+                        // a cell can't be retired while it is locked
+                        ((Cell) entry).attempt(entity, now);
+                    } else {
+                        attempt((Window) entry, entity, now);
                     }
+                });
+    }
+
+    private void attempt(final Window window, final T entity, final long now)
+            throws RetryInException {
+        final Limits limits = window.limits;
+        for (final Strategy strategy : limits.windowed) {
+            // a strategy allowing zero attempts still lets the first one through
+            final int attempts = Math.max(strategy.getAttempts(), 1);
+            if (window.size < attempts) {
+                continue;
+            }
+            final long expires = window.get(attempts) + strategy.getDuration().toNanos();
+            if (expires > now) {
+                throw new RetryInException(Duration.ofNanos(expires - now), entity);
+            }
+        }
+        for (int i = 0; i < limits.gcra.length; ++i) {
+            next(limits.gcra[i], window.tats[i], now, entity);
+        }
+        if (shared != null) {
+            checkShared(limits.strategies, entity);
+        }
+        window.add(now);
+        for (int i = 0; i < limits.gcra.length; ++i) {
+            window.tats[i] = next(limits.gcra[i], window.tats[i], now, entity);
+        }
+    }
+
+    /**
+     * @param tat the theoretical arrival time of the next attempt
+     * @return the theoretical arrival time after this attempt if it is allowed
+     */
+    private static long next(
+            final Strategy strategy, final long tat, final long now, final Object entity)
+            throws RetryInException {
+        final long interval = strategy.getEmissionInterval();
+        final long next = Math.max(tat, now) + interval;
+        final long allowed = next - interval * Math.max(strategy.getAttempts(), 1);
+        if (allowed > now) {
+            throw new RetryInException(Duration.ofNanos(allowed - now), entity);
+        }
+        return next;
+    }
+
+    private void checkShared(final Strategy[] strategies, final T entity)
+            throws RetryInException {
+        final long now = System.currentTimeMillis();
+        final SharedCounters.Counter[] counters = new SharedCounters.Counter[strategies.length];
+        for (int i = 0; i < strategies.length; ++i) {
+            final long period = Math.max(strategies[i].getDuration().toMillis(), 1);
+            final long started = now - now % period;
+            counters[i] = shared.get(name, entity, period, started);
+            if (counters[i].get() >= Math.max(strategies[i].getAttempts(), 1)) {
+                throw new RetryInException(Duration.ofMillis(started + period - now), entity);
+            }
+        }
+        for (int i = 0; i < counters.length; ++i) {
+            // strategies are sorted by duration; those with the same one share a counter
+            if (i == 0 || counters[i] != counters[i - 1]) {
+                counters[i].increment();
+            }
+        }
+    }
+
+    /**
+     * Writes the timestamps of the window, oldest first, followed by the duration, attempts and
+     * theoretical arrival time of every GCRA strategy.
+     */
+    void save(final LimiterSnapshot.Writer writer, final KeyCodec<T> codec) throws IOException {
+        entries.forEach(
+                (entity, entry) -> {
+                    writer.begin(codec, entity);
+                    entry.save(writer);
+                    writer.end();
+                });
+    }
+
+    private static void writeTat(
+            final LimiterSnapshot.Writer writer, final Strategy strategy, final long tat) {
+        writer.writeLong(strategy.getDuration().toMillis());
+        writer.writeInt(strategy.getAttempts());
+        writer.writeLong(writer.toEpochMillis(tat));
+    }
+
+    void restore(final LimiterSnapshot.Reader reader, final KeyCodec<T> codec)
+            throws IOException {
+        final Limits limits = this.limits;
+        T entity;
+        while ((entity = reader.next(codec)) != null) {
+            final long[] timestamps = new long[reader.readCount(Long.BYTES)];
+            for (int i = 0; i < timestamps.length; ++i) {
+                timestamps[i] = reader.toNanoTime(reader.readLong());
+            }
+            final int count = reader.readCount(2 * Long.BYTES + Integer.BYTES);
+            final Strategy[] strategies = new Strategy[count];
+            final long[] tats = new long[count];
+            for (int i = 0; i < count; ++i) {
+                final Duration duration = Duration.ofMillis(reader.readLong());
+                strategies[i] = Strategy.gcra(duration, reader.readInt());
+                tats[i] = reader.toNanoTime(reader.readLong());
+            }
+            entries.restore(
+                    entity, limits.create(timestamps, strategies, tats, System.nanoTime()));
+        }
+    }
+
+    /**
+     * @return the theoretical arrival time of the strategy for an entity with the given recent
+     *     attempts and arrival times of other GCRA strategies
+     */
+    private static long tat(
+            final Strategy strategy,
+            final long[] timestamps,
+            final Strategy[] strategies,
+            final long[] tats,
+            final long now) {
+        final long interval = strategy.getEmissionInterval();
+        for (int i = 0; i < strategies.length; ++i) {
+            if (strategies[i].equals(strategy)) {
+                return tats[i];
+            }
+        }
+        for (int i = 0; i < strategies.length; ++i) {
+            if (strategies[i].getDuration().equals(strategy.getDuration())) {
+                if (tats[i] <= now) {
+                    return Long.MIN_VALUE;
+                }
+                final double ahead =
+                        (double) (tats[i] - now) / strategies[i].getEmissionInterval();
+                return now + Math.min((long) (ahead * interval), strategy.getDuration().toNanos());
+            }
+        }
+        long tat = Long.MIN_VALUE;
+        for (final long timestamp : timestamps) {
+            tat = Math.max(tat, timestamp) + interval;
+        }
+        return tat;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the number of entities with attempts that might still count */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getEvictedCount() {
+        return entries.getEvictedCount();
+    }
+
+    private static final class Limits {
+        // sorted by duration, longest first
+        private final Strategy[] strategies;
+        private final Strategy[] windowed;
+        private final Strategy[] gcra;
+        private final int capacity;
+        private final long longest;
+        private final boolean lockFree;
+
+        private Limits(final Strategy[] strategies, final boolean shared) {
+            this.strategies = strategies.clone();
+            Arrays.sort(this.strategies, (a, b) -> b.getDuration().compareTo(a.getDuration()));
+            this.windowed = ofKind(this.strategies, Strategy.Kind.WINDOW);
+            this.gcra = ofKind(this.strategies, Strategy.Kind.GCRA);
+            int capacity = 0;
+            for (final Strategy strategy : windowed) {
+                capacity = Math.max(capacity, Math.max(strategy.getAttempts(), 1));
+            }
+            this.capacity = capacity;
+            this.longest = windowed.length == 0 ? 0 : windowed[0].getDuration().toNanos();
+            // the shared check has to pass before an attempt counts, which needs the lock
+            this.lockFree = !shared && windowed.length == 0 && gcra.length == 1;
+        }
+
+        private static Strategy[] ofKind(final Strategy[] strategies, final Strategy.Kind kind) {
+            return Arrays.stream(strategies)
+                    .filter(s -> s.getKind() == kind)
+                    .toArray(Strategy[]::new);
+        }
+
+        private Entry create() {
+            return lockFree ? new Cell(this) : new Window(this);
+        }
+
+        /**
+         * @param timestamps the recent attempts of the entity, oldest first
+         * @param strategies GCRA strategies the entity has been limited by
+         * @param tats the theoretical arrival times of those strategies
+         */
+        private Entry create(
+                final long[] timestamps,
+                final Strategy[] strategies,
+                final long[] tats,
+                final long now) {
+            if (lockFree) {
+                final Cell cell = new Cell(this);
+                cell.tat = tat(gcra[0], timestamps, strategies, tats, now);
+                return cell;
+            }
+            final Window window = new Window(this);
+            for (final long timestamp : timestamps) {
+                // if the limits have been lowered only the most recent are kept
+                window.add(timestamp);
+            }
+            for (int i = 0; i < gcra.length; ++i) {
+                window.tats[i] = tat(gcra[i], timestamps, strategies, tats, now);
+            }
+            return window;
+        }
+    }
+
+    private abstract static class Entry extends ExpiringStore.State {
+        final Limits limits;
+
+        private Entry(final Limits limits) {
+            this.limits = limits;
+        }
+
+        abstract void save(LimiterSnapshot.Writer writer);
+
+        /**
+         * Called with the entry locked.
+         *
+         * @return an entry with the given limits and the attempts of this one
+         */
+        abstract Entry replace(Limits limits, long now);
+    }
+
+    private static class Window extends Entry {
+        private long[] timestamps;
+        private int next = 0;
+        private int size = 0;
+        // theoretical arrival times of the GCRA strategies
+        private final long[] tats;
+
+        private Window(final Limits limits) {
+            super(limits);
+            this.timestamps = new long[Math.min(limits.capacity, INITIAL_CAPACITY)];
+            this.tats = new long[limits.gcra.length];
+            Arrays.fill(tats, Long.MIN_VALUE);
+        }
+
+        @Override
+        long deadline() {
+            long deadline = size == 0 ? Long.MIN_VALUE : get(1) + limits.longest;
+            for (final long tat : tats) {
+                deadline = Math.max(deadline, tat);
+            }
+            return deadline;
+        }
+
+        @Override
+        void save(final LimiterSnapshot.Writer writer) {
+            writer.writeInt(size);
+            for (int n = size; n >= 1; --n) {
+                writer.writeLong(writer.toEpochMillis(get(n)));
+            }
+            writer.writeInt(tats.length);
+            for (int i = 0; i < tats.length; ++i) {
+                writeTat(writer, limits.gcra[i], tats[i]);
+            }
+        }
+
+        @Override
+        Entry replace(final Limits limits, final long now) {
+            final long[] attempts = new long[size];
+            for (int n = size; n >= 1; --n) {
+                attempts[size - n] = get(n);
+            }
+            return limits.create(attempts, this.limits.gcra, tats, now);
+        }
+
+        /** @return the timestamp of the n-th most recent attempt (starting at 1) */
+        private long get(final int n) {
+            return timestamps[(next - n + timestamps.length) % timestamps.length];
+        }
+
+        private void add(final long timestamp) {
+            final int capacity = limits.capacity;
+            if (capacity == 0) {
+                return;
+            }
+            if (size == timestamps.length && size < capacity) {
+                final long[] grown = new long[Math.min(capacity, size * 2)];
+                for (int i = 0; i < size; ++i) {
+                    grown[i] = get(size - i);
+                }
+                timestamps = grown;
+                next = size;
+            }
+            timestamps[next] = timestamp;
+            next = (next + 1) % timestamps.length;
+            size = Math.min(size + 1, timestamps.length);
+        }
+    }
+
+    /**
+     * The theoretical arrival time of the only GCRA strategy. Updated without the lock; once a cell
+     * has been retired or replaced its arrival time stays at {@link #RETIRED} so attempts that
+     * still see it fall back to the locked path, which finds or creates its successor.
+     */
+    private static class Cell extends Entry {
+        private static final long RETIRED = Long.MAX_VALUE;
+        private static final AtomicLongFieldUpdater<Cell> TAT =
+                AtomicLongFieldUpdater.newUpdater(Cell.class, "tat");
+
+        private volatile long tat = Long.MIN_VALUE;
+
+        private Cell(final Limits limits) {
+            super(limits);
+        }
+
+        @Override
+        long deadline() {
+            return tat;
+        }
+
+        @Override
+        boolean retire(final long now) {
+            while (true) {
+                final long tat = this.tat;
+                if (tat > now) {
+                    return false;
+                }
+                if (TAT.compareAndSet(this, tat, RETIRED)) {
+                    removed = true;
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        void save(final LimiterSnapshot.Writer writer) {
+            writer.writeInt(0);
+            writer.writeInt(1);
+            writeTat(writer, limits.gcra[0], tat);
+        }
+
+        @Override
+        Entry replace(final Limits limits, final long now) {
+            final Strategy[] strategies = {this.limits.gcra[0]};
+            while (true) {
+                final long tat = this.tat;
+                final Entry entry = limits.create(NO_TIMESTAMPS, strategies, new long[] {tat}, now);
+                // attempts that still see this cell have to go to its replacement
+                if (TAT.compareAndSet(this, tat, RETIRED)) {
+                    return entry;
+                }
+            }
+        }
+
+        /** @return false if the cell has been retired */
+        private boolean attempt(final Object entity, final long now) throws RetryInException {
+            final Strategy strategy = limits.gcra[0];
+            while (true) {
+                final long tat = this.tat;
+                if (tat == RETIRED) {
+                    return false;
+                }
+                if (TAT.compareAndSet(this, tat, next(strategy, tat, now, entity))) {
+                    return true;
                 }
             }
         }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.throttle;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import im.quicksy.server.metrics.Histogram;
+import im.quicksy.server.metrics.Metrics;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local view of the counters in a {@link CounterStore}. Attempts are counted locally and added to
+ * the store in one batch per flush interval, which also brings back what the other nodes have
+ * counted in the meantime, so checking a shared limit never waits for the store. In exchange every
+ * node may let through up to one flush interval worth of attempts that the others have already
+ * counted. If the store is unreachable the increments are kept for the next flush.
+ */
+public class SharedCounters {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedCounters.class);
+
+    // matches the size of throttle_counters.entity
+    private static final int MAX_ENTITY_LENGTH = 128;
+
+    private static final long PURGE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Histogram FLUSH_TIME =
+            Metrics.getInstance()
+                    .histogram(
+                            "quicksy_throttle_shared_flush_milliseconds",
+                            "Time spent adding local attempts to the shared counters",
+                            Histogram.MILLISECONDS);
+
+    private final CounterStore store;
+    private final ConcurrentHashMap<Key, Counter> counters = new ConcurrentHashMap<>();
+    private final LongAdder failures =
+            Metrics.getInstance()
+                    .counter(
+                            "quicksy_throttle_shared_flush_failures_total",
+                            "Flushes of the shared counters that failed");
+    private long purged = 0;
+
+    public SharedCounters(final CounterStore store, final Duration flushInterval) {
+        this.store = store;
+        final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("throttle-flush")
+                                .setDaemon(true)
+                                .build());
+        executor.scheduleWithFixedDelay(
+                this::flush,
+                flushInterval.toMillis(),
+                flushInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        Metrics.getInstance()
+                .gauge(
+                        "quicksy_throttle_shared_counters",
+                        "Shared counters cached locally",
+                        counters::size);
+    }
+
+    Counter get(final String limiter, final Object entity, final long period, final long started) {
+        final Key key = new Key(limiter, entity(entity), period, started);
+        return counters.computeIfAbsent(key, Counter::new);
+    }
+
+    private static String entity(final Object entity) {
+        final String string = entity.toString();
+        if (string.length() <= MAX_ENTITY_LENGTH) {
+            return string;
+        }
+        return Hashing.murmur3_128().hashString(string, StandardCharsets.UTF_8).toString();
+    }
+
+    /** Adds the local attempts to the store and refreshes the totals of the affected counters. */
+    public synchronized void flush() {
+        final long start = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        final List<Counter> flushing = new ArrayList<>();
+        final List<CounterStore.Increment> increments = new ArrayList<>();
+        for (final Counter counter : counters.values()) {
+            final long delta = counter.drain();
+            if (delta > 0) {
+                flushing.add(counter);
+                increments.add(counter.key.increment(delta));
+            } else if (counter.key.started + counter.key.period <= now) {
+                counters.remove(counter.key, counter);
+            }
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
+        final long[] totals;
+        try {
+            totals = store.add(increments);
+            if (now - purged >= PURGE_INTERVAL) {
+                store.purge(now);
+                purged = now;
+            }
+        } catch (final RuntimeException e) {
+            failures.increment();
+            LOGGER.warn("unable to flush " + increments.size() + " shared counters", e);
+            for (final Counter counter : flushing) {
+                counter.failed();
+            }
+            return;
+        }
+        for (int i = 0; i < totals.length; ++i) {
+            flushing.get(i).flushed(totals[i]);
+        }
+        FLUSH_TIME.observe(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    int size() {
+        return counters.size();
+    }
+
+    static final class Counter {
+        private final Key key;
+        // the total of all nodes as of the last flush, including what this node has added
+        private long total = 0;
+        private long pending = 0;
+        private long sending = 0;
+
+        private Counter(final Key key) {
+            this.key = key;
+        }
+
+        synchronized long get() {
+            return total + sending + pending;
+        }
+
+        synchronized void increment() {
+            ++pending;
+        }
+
+        private synchronized long drain() {
+            sending = pending;
+            pending = 0;
+            return sending;
+        }
+
+        private synchronized void flushed(final long total) {
+            this.total = total;
+            this.sending = 0;
+        }
+
+        private synchronized void failed() {
+            pending += sending;
+            sending = 0;
+        }
+    }
+
+    private static final class Key {
+        private final String limiter;
+        private final String entity;
+        private final long period;
+        private final long started;
+
+        private Key(
+                final String limiter, final String entity, final long period, final long started) {
+            this.limiter = limiter;
+            this.entity = entity;
+            this.period = period;
+            this.started = started;
+        }
+
+        private CounterStore.Increment increment(final long delta) {
+            return new CounterStore.Increment(limiter, entity, period, started, delta);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return period == key.period
+                    && started == key.started
+                    && limiter.equals(key.limiter)
+                    && entity.equals(key.entity);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(limiter, entity, period, started);
+        }
+    }
+}
@@ -23,10 +23,12 @@ public class Strategy {
 
     private final Duration duration;
     private final int attempts;
+    private final Kind kind;
 
-    private Strategy(Duration duration, int attempts) {
+    private Strategy(Duration duration, int attempts, Kind kind) {
         this.duration = duration;
         this.attempts = attempts;
+        this.kind = kind;
     }
 
     @Override
@@ -34,16 +36,28 @@ public class Strategy {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Strategy strategy = (Strategy) o;
-        return attempts == strategy.attempts && Objects.equals(duration, strategy.duration);
+        return attempts == strategy.attempts
+                && Objects.equals(duration, strategy.duration)
+                && kind == strategy.kind;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(duration, attempts);
+        return Objects.hash(duration, attempts, kind);
     }
 
     public static Strategy of(Duration duration, int attempts) {
-        return new Strategy(duration, attempts);
+        return new Strategy(duration, attempts, Kind.WINDOW);
+    }
+
+    /**
+     * Generic cell rate algorithm: attempts are spaced duration / attempts apart, with bursts of up
+     * to the given number of attempts. Unlike {@link #of(Duration, int)} an entity that has used up
+     * its burst gets its attempts back one at a time rather than all at once when the window has
+     * passed. Costs a single long per entity.
+     */
+    public static Strategy gcra(Duration duration, int attempts) {
+        return new Strategy(duration, attempts, Kind.GCRA);
     }
 
     public Duration getDuration() {
@@ -53,4 +67,18 @@ public class Strategy {
     public int getAttempts() {
         return attempts;
     }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return the interval between attempts at the sustained rate of a GCRA strategy */
+    long getEmissionInterval() {
+        return Math.max(duration.toNanos() / Math.max(attempts, 1), 1);
+    }
+
+    public enum Kind {
+        WINDOW,
+        GCRA
+    }
 }
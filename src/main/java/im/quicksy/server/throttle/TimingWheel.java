@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.throttle;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: four levels of 64 slots each, where a slot on level n spans 64^n
+ * ticks. Items are put into the lowest level whose range covers their deadline and move down a
+ * level whenever the wheel reaches the block of ticks they are in, so scheduling is O(1) and every
+ * item is moved at most three times before it fires. Deadlines further away than 64^4 ticks are
+ * parked on the last level and rescheduled when they come around.
+ *
+ * <p>Not thread safe.
+ */
+class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long HORIZON = 1L << (BITS * LEVELS);
+
+    private final long tickNanos;
+    private final Node<T>[][] slots;
+    private long currentTick;
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(final long tickNanos, final long now) {
+        this.tickNanos = tickNanos;
+        this.slots = (Node<T>[][]) new Node[LEVELS][SLOTS];
+        this.currentTick = Math.floorDiv(now, tickNanos);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Schedules the item to fire once the wheel has been advanced past the deadline. */
+    void schedule(final T item, final long deadline) {
+        // round up so that nothing fires early; deadlines in the past fire on the next tick
+        final long tick =
+                deadline <= currentTick * tickNanos
+                        ? currentTick + 1
+                        : Math.max(Math.floorDiv(deadline - 1, tickNanos) + 1, currentTick + 1);
+        insert(new Node<>(item, deadline, tick));
+        ++size;
+    }
+
+    private void insert(final Node<T> node) {
+        final long delta = node.tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            ++level;
+        }
+        final long tick = delta < HORIZON ? node.tick : currentTick + HORIZON - 1;
+        final int index = (int) (tick >>> (BITS * level)) & MASK;
+        node.next = slots[level][index];
+        slots[level][index] = node;
+    }
+
+    /** Hands every item whose deadline is before now to the consumer and removes it. */
+    void advance(final long now, final Consumer<T> expired) {
+        final long target = Math.floorDiv(now, tickNanos);
+        if (size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return;
+        }
+        while (currentTick < target) {
+            ++currentTick;
+            for (int level = LEVELS - 1; level > 0; --level) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    final int index = (int) (currentTick >>> (BITS * level)) & MASK;
+                    Node<T> node = slots[level][index];
+                    slots[level][index] = null;
+                    while (node != null) {
+                        final Node<T> next = node.next;
+                        insert(node);
+                        node = next;
+                    }
+                }
+            }
+            final int index = (int) currentTick & MASK;
+            Node<T> node = slots[0][index];
+            slots[0][index] = null;
+            while (node != null) {
+                --size;
+                expired.accept(node.item);
+                node = node.next;
+            }
+        }
+    }
+
+    private static class Node<T> {
+        private final T item;
+        private final long deadline;
+        private final long tick;
+        private Node<T> next;
+
+        private Node(final T item, final long deadline, final long tick) {
+            this.item = item;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+    }
+}
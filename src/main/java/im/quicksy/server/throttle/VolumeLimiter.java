@@ -16,62 +16,241 @@
 
 package im.quicksy.server.throttle;
 
+import com.google.common.hash.Hashing;
+import java.io.IOException;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.ToLongFunction;
 
+/**
+ * Limits how many distinct things (phone numbers) an entity may submit within the duration of the
+ * strategy. Things that have been charged within that duration can be submitted again for free.
+ * Every entity keeps the things it has been charged for in a {@link LongSet} and in buckets that
+ * expire in order, so an attempt costs O(n) in the number of things submitted regardless of what
+ * has been charged before or how many entities there are. Entities are locked individually and
+ * expire in the background once all of their charges have; see {@link ExpiringStore} for what
+ * happens when there are too many.
+ *
+ * <p>Buckets remember when they were charged rather than when they expire, so the strategy can be
+ * changed without touching the entities.
+ */
 public class VolumeLimiter<E, T> {
 
-    private final Strategy strategy;
+    // attempts within 1/64 of the duration of the first charge of a bucket share it and expire
+    // with the last one, at most that much later than they would on their own
+    private static final int BUCKETS_PER_DURATION = 64;
 
-    private final LinkedList<VolumeAttempt<E, T>> attempts = new LinkedList<>();
+    private final String name;
+    private final ToLongFunction<T> key;
+    private volatile Strategy strategy;
 
+    private final ExpiringStore<E, Charges> charges;
+
+    /** Tells things apart by a 64 bit hash of their string representation. */
     public VolumeLimiter(Strategy strategy) {
+        this(strategy, what -> Hashing.murmur3_128().hashUnencodedChars(what.toString()).asLong());
+    }
+
+    public VolumeLimiter(final Strategy strategy, final ToLongFunction<T> key) {
+        this(null, Integer.MAX_VALUE, strategy, key);
+    }
+
+    /**
+     * @param name used to export the number of tracked entities as quicksy_throttle_NAME_keys
+     * @param maxKeys the maximum number of entities to track
+     */
+    public VolumeLimiter(
+            final String name,
+            final int maxKeys,
+            final Strategy strategy,
+            final ToLongFunction<T> key) {
+        this.name = name;
         this.strategy = strategy;
+        this.key = key;
+        this.charges = new ExpiringStore<>(name, maxKeys, Charges::new);
     }
 
-    public synchronized void attempt(E who, List<T> whats) throws RetryInException {
+    /**
+     * Replaces the strategy. Things that have been charged expire after the new duration, counted
+     * from when they were charged.
+     */
+    public void setStrategy(final Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void attempt(E who, List<T> whats) throws RetryInException {
+        final long[] keys = new long[whats.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = key.applyAsLong(whats.get(i));
+        }
+        attempt(who, keys);
+    }
 
-        if (whats.size() == 0) {
+    public void attempt(final E who, final long... whats) throws RetryInException {
+
+        if (whats.length == 0) {
             return;
         }
 
-        if (whats.size() > strategy.getAttempts()) {
+        final Strategy strategy = this.strategy;
+        if (whats.length > strategy.getAttempts()) {
             throw new RetryInException(
                     Duration.ZERO); // TODO should we throw a too large exception. because retry
             // doesn’t really make sense
         }
 
-        List<T> remaining = new ArrayList<>(whats);
-        final long now = System.nanoTime();
-
-        final Iterator<VolumeAttempt<E, T>> iterator = attempts.iterator();
-        int whatsCount = 0;
-        VolumeAttempt<E, T> firstAttempt = null;
-        while (iterator.hasNext()) {
-            VolumeAttempt<E, T> attempt = iterator.next();
-            if (attempt.expired(now)) {
-                iterator.remove();
-            } else {
-                if (who.equals(attempt.getWho())) {
-                    whatsCount += attempt.getWhats().size();
-                    remaining.removeAll(attempt.getWhats());
-                    if (firstAttempt == null) {
-                        firstAttempt = attempt;
-                    }
-                    if (remaining.size() == 0) {
-                        return;
+        charges.update(
+                who,
+                (entity, now) -> {
+                    entity.expire(now - strategy.getDuration().toNanos());
+                    charge(entity, strategy, whats, now);
+                });
+    }
+
+    private void charge(
+            final Charges entity, final Strategy strategy, final long[] whats, final long now)
+            throws RetryInException {
+        final long duration = strategy.getDuration().toNanos();
+        final long[] fresh = new long[whats.length];
+        int count = 0;
+        for (final long what : whats) {
+            if (entity.charged.add(what)) {
+                fresh[count++] = what;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        final int excess = entity.charged.size() - strategy.getAttempts();
+        if (excess > 0) {
+            for (int i = 0; i < count; ++i) {
+                entity.charged.remove(fresh[i]);
+            }
+            throw new RetryInException(Duration.ofNanos(entity.freedAfter(excess, duration) - now));
+        }
+        final long granularity = duration / BUCKETS_PER_DURATION;
+        final Bucket last = entity.buckets.peekLast();
+        if (last != null && now - last.opened < granularity) {
+            last.add(fresh, count);
+            last.charged = now;
+        } else {
+            entity.buckets.addLast(new Bucket(Arrays.copyOf(fresh, count), now));
+        }
+    }
+
+    void save(final LimiterSnapshot.Writer writer, final KeyCodec<E> codec) throws IOException {
+        final long duration = strategy.getDuration().toNanos();
+        charges.forEach(
+                (who, entity) -> {
+                    writer.begin(codec, who);
+                    writer.writeInt(entity.buckets.size());
+                    for (final Bucket bucket : entity.buckets) {
+                        writer.writeLong(writer.toEpochMillis(bucket.charged + duration));
+                        writer.writeInt(bucket.count);
+                        for (int i = 0; i < bucket.count; ++i) {
+                            writer.writeLong(bucket.whats[i]);
+                        }
                     }
+                    writer.end();
+                });
+    }
+
+    void restore(final LimiterSnapshot.Reader reader, final KeyCodec<E> codec)
+            throws IOException {
+        final long duration = strategy.getDuration().toNanos();
+        E who;
+        while ((who = reader.next(codec)) != null) {
+            final Charges entity = new Charges();
+            final int buckets = reader.readCount(Long.BYTES + Integer.BYTES);
+            for (int i = 0; i < buckets; ++i) {
+                final long charged = reader.toNanoTime(reader.readLong()) - duration;
+                final long[] whats = new long[reader.readCount(Long.BYTES)];
+                for (int j = 0; j < whats.length; ++j) {
+                    whats[j] = reader.readLong();
+                    entity.charged.add(whats[j]);
                 }
+                entity.buckets.addLast(new Bucket(whats, charged));
             }
+            entity.expire(System.nanoTime() - duration);
+            charges.restore(who, entity);
         }
-        if (whatsCount + remaining.size() > strategy.getAttempts()) {
-            throw new RetryInException(
-                    firstAttempt == null ? Duration.ZERO : firstAttempt.expiresIn(now));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the number of entities that have been charged for something recently */
+    public int size() {
+        return charges.size();
+    }
+
+    public long getEvictedCount() {
+        return charges.getEvictedCount();
+    }
+
+    private class Charges extends ExpiringStore.State {
+        private final LongSet charged = new LongSet();
+        private final ArrayDeque<Bucket> buckets = new ArrayDeque<>();
+
+        @Override
+        long deadline() {
+            return buckets.isEmpty()
+                    ? Long.MIN_VALUE
+                    : buckets.peekLast().charged + strategy.getDuration().toNanos();
+        }
+
+        /** Drops the buckets that have last been charged at or before the given time. */
+        private void expire(final long until) {
+            while (!buckets.isEmpty() && buckets.peekFirst().charged <= until) {
+                final Bucket bucket = buckets.pollFirst();
+                for (int i = 0; i < bucket.count; ++i) {
+                    charged.remove(bucket.whats[i]);
+                }
+            }
+        }
+
+        /** @return the time at which at least the given number of things will have expired */
+        private long freedAfter(final int count, final long duration) {
+            int freed = 0;
+            for (final Bucket bucket : buckets) {
+                freed += bucket.count;
+                if (freed >= count) {
+                    return bucket.charged + duration;
+                }
+            }
+            throw new IllegalStateException("Not enough things charged to free " + count);
+        }
+    }
+
+    private static class Bucket {
+        private long[] whats;
+        private int count;
+        // when the bucket has first been charged; later charges only join it until it is closed
+        private final long opened;
+        // when the bucket has last been charged
+        private long charged;
+
+        private Bucket(final long[] whats, final long charged) {
+            this.whats = whats;
+            this.count = whats.length;
+            this.opened = charged;
+            this.charged = charged;
+        }
+
+        private void add(final long[] more, final int length) {
+            if (count + length > whats.length) {
+                whats = Arrays.copyOf(whats, Math.max(count + length, whats.length * 2));
+            }
+            System.arraycopy(more, 0, whats, count, length);
+            count += length;
         }
-        attempts.push(new VolumeAttempt<>(who, remaining, strategy.getDuration().toNanos() + now));
     }
 
     public static class RetryInException extends Exception {
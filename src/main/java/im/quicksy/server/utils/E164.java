@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.utils;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * Hand written scanner for E.164 phone numbers. Validates and packs the digits of a number into a
+ * long (+4915123456789 becomes 4915123456789) in a single pass without allocating. A number has a
+ * non-zero first digit and between 2 and 15 digits in total.
+ */
+public final class E164 {
+
+    private static final int MIN_DIGITS = 2;
+    private static final int MAX_DIGITS = 15;
+
+    private static final CharMatcher WHITESPACE = CharMatcher.whitespace();
+
+    private E164() {}
+
+    /** @return true for the same inputs as {@code ^\+?[1-9]\d{1,14}$}; the leading + is optional */
+    public static boolean isValid(final CharSequence phoneNumber) {
+        return scan(phoneNumber, false, false) != 0;
+    }
+
+    /** @return the packed phone number or 0 unless it is in canonical form including the + */
+    public static long pack(final CharSequence phoneNumber) {
+        return scan(phoneNumber, true, false);
+    }
+
+    /**
+     * @return the packed phone number or 0 if invalid. Whitespace anywhere and a missing leading +
+     *     are tolerated.
+     */
+    public static long packLenient(final CharSequence phoneNumber) {
+        return scan(phoneNumber, false, true);
+    }
+
+    public static String format(final long key) {
+        return "+" + key;
+    }
+
+    private static long scan(
+            final CharSequence input, final boolean requirePlus, final boolean skipWhitespace) {
+        if (input == null) {
+            return 0;
+        }
+        final int length = input.length();
+        int i = 0;
+        if (skipWhitespace) {
+            while (i < length && WHITESPACE.matches(input.charAt(i))) {
+                ++i;
+            }
+        }
+        if (i < length && input.charAt(i) == '+') {
+            ++i;
+        } else if (requirePlus) {
+            return 0;
+        }
+        long key = 0;
+        int digits = 0;
+        for (; i < length; ++i) {
+            final char c = input.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if ((digits == 0 && c == '0') || ++digits > MAX_DIGITS) {
+                    return 0;
+                }
+                key = key * 10 + (c - '0');
+            } else if (!skipWhitespace || !WHITESPACE.matches(c)) {
+                return 0;
+            }
+        }
+        return digits >= MIN_DIGITS ? key : 0;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.utils;
+
+/**
+ * Open addressing (linear probing) hash map from long to non-negative int that never boxes. The
+ * tables of phone numbers, users and charged things use it to find the row of a key in their own
+ * column arrays, which they keep dense so that removing a row only moves their last one. Entries
+ * are removed by backward shift deletion, so there are no tombstones and a lookup stops at the
+ * first empty slot. 0 marks empty slots; its value is kept in a field of its own.
+ *
+ * <p>Not thread safe.
+ */
+public final class LongIntMap {
+
+    /** Returned for keys that aren't mapped. */
+    public static final int MISSING = -1;
+
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int emptyKeyValue = MISSING;
+
+    public LongIntMap() {
+        this(0);
+    }
+
+    public LongIntMap(final int expectedSize) {
+        final int minimum = Math.max(MIN_CAPACITY, expectedSize * 2);
+        allocate(Integer.highestOneBit(minimum - 1) << 1);
+    }
+
+    private void allocate(final int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private static int home(final long key, final int mask) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return emptyKeyValue == MISSING ? size : size + 1;
+    }
+
+    /** @return the value of the key or {@link #MISSING} */
+    public int get(final long key) {
+        if (key == EMPTY) {
+            return emptyKeyValue;
+        }
+        int i = home(key, mask);
+        while (true) {
+            final long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == EMPTY) {
+                return MISSING;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /** @return the previous value of the key or {@link #MISSING} */
+    public int put(final long key, final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        if (key == EMPTY) {
+            final int previous = emptyKeyValue;
+            emptyKeyValue = value;
+            return previous;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        int i = home(key, mask);
+        while (true) {
+            final long k = keys[i];
+            if (k == key) {
+                final int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            if (k == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+                ++size;
+                return MISSING;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /** @return the value the key had or {@link #MISSING} */
+    public int remove(final long key) {
+        if (key == EMPTY) {
+            final int previous = emptyKeyValue;
+            emptyKeyValue = MISSING;
+            return previous;
+        }
+        int gap = home(key, mask);
+        while (keys[gap] != key) {
+            if (keys[gap] == EMPTY) {
+                return MISSING;
+            }
+            gap = (gap + 1) & mask;
+        }
+        final int previous = values[gap];
+        // move every following key of the run that may not be found past the gap into it
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            final long k = keys[i];
+            if (k == EMPTY) {
+                break;
+            }
+            if (((i - home(k, mask)) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = EMPTY;
+        --size;
+        return previous;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; ++j) {
+            final long key = oldKeys[j];
+            if (key == EMPTY) {
+                continue;
+            }
+            int i = home(key, mask);
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.utils;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+/**
+ * Maps between libphonenumber's {@link PhoneNumber} and the digits of its E.164 representation
+ * packed into a long (+4915123456789 becomes 4915123456789) without going through the parser.
+ */
+public final class PhoneNumberKeys {
+
+    private static final int MAX_DIGITS = 15;
+
+    private static final ImmutableSet<Integer> CALLING_CODES =
+            ImmutableSet.copyOf(PhoneNumberUtil.getInstance().getSupportedCallingCodes());
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private PhoneNumberKeys() {}
+
+    /** @return the packed E.164 number or 0 if the number has too many digits */
+    public static long of(final PhoneNumber phoneNumber) {
+        final int countryCode = phoneNumber.getCountryCode();
+        final long nationalNumber = phoneNumber.getNationalNumber();
+        if (countryCode <= 0 || nationalNumber <= 0) {
+            return 0;
+        }
+        int digits = digits(nationalNumber);
+        if (phoneNumber.isItalianLeadingZero()) {
+            digits += phoneNumber.getNumberOfLeadingZeros();
+        }
+        if (digits + digits(countryCode) > MAX_DIGITS) {
+            return 0;
+        }
+        return countryCode * POWERS_OF_TEN[digits] + nationalNumber;
+    }
+
+    /**
+     * @return a phone number equal to what {@link PhoneNumberUtil#parse(CharSequence, String)}
+     *     would produce for the E.164 representation of the key
+     * @throws IllegalArgumentException if the key doesn't start with a known calling code
+     */
+    public static PhoneNumber toPhoneNumber(final long key) {
+        if (key <= 0 || key >= POWERS_OF_TEN[MAX_DIGITS]) {
+            throw new IllegalArgumentException("Invalid phone number key " + key);
+        }
+        final int digits = digits(key);
+        for (int length = 1; length <= 3 && length < digits; ++length) {
+            final long divisor = POWERS_OF_TEN[digits - length];
+            final int countryCode = (int) (key / divisor);
+            if (!CALLING_CODES.contains(countryCode)) {
+                continue;
+            }
+            final long nationalNumber = key % divisor;
+            if (nationalNumber == 0) {
+                break;
+            }
+            final PhoneNumber phoneNumber =
+                    new PhoneNumber().setCountryCode(countryCode).setNationalNumber(nationalNumber);
+            final int leadingZeros = digits - length - digits(nationalNumber);
+            if (leadingZeros > 0) {
+                phoneNumber.setItalianLeadingZero(true);
+                if (leadingZeros > 1) {
+                    phoneNumber.setNumberOfLeadingZeros(leadingZeros);
+                }
+            }
+            return phoneNumber;
+        }
+        throw new IllegalArgumentException("Unknown calling code in phone number key " + key);
+    }
+
+    private static int digits(final long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            ++digits;
+        }
+        return digits;
+    }
+}
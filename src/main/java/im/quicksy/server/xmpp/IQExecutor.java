@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.xmpp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import im.quicksy.server.metrics.Histogram;
+import im.quicksy.server.metrics.Metrics;
+import im.quicksy.server.metrics.PhaseTimer;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.session.XmppSession;
+import rocks.xmpp.core.stanza.IQHandler;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.StanzaError;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+
+/**
+ * Runs IQ handlers on a fixed number of threads with a bounded queue instead of the session's
+ * unbounded default executor. Wrapped handlers have to be registered synchronously; they hand the
+ * request over to the pool, return null so that the session doesn't respond on its own and send
+ * the response once the actual handler has finished. Requests that don't fit into the queue are
+ * answered right away with a resource-constraint error of type wait.
+ */
+public class IQExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IQExecutor.class);
+
+    private static final Histogram WAIT_TIME =
+            Metrics.getInstance()
+                    .histogram(
+                            "quicksy_iq_queue_wait_milliseconds",
+                            "Time IQ requests spent waiting for a handler thread",
+                            Histogram.MILLISECONDS);
+    private static final Histogram HANDLER_TIME =
+            Metrics.getInstance()
+                    .histogram(
+                            "quicksy_iq_handler_milliseconds",
+                            "Time spent in IQ handlers",
+                            Histogram.MILLISECONDS);
+    private static final Histogram SEND_TIME =
+            Metrics.getInstance()
+                    .histogram(
+                            "quicksy_iq_send_milliseconds",
+                            "Time spent handing IQ responses over to the session",
+                            Histogram.MILLISECONDS);
+
+    private final XmppSession session;
+    private final ThreadPoolExecutor executor;
+    private final long slowRequestMillis;
+
+    private final LongAdder executed =
+            Metrics.getInstance().counter("quicksy_iq_executed_total", "IQ requests handled");
+    private final LongAdder rejected =
+            Metrics.getInstance()
+                    .counter("quicksy_iq_rejected_total", "IQ requests rejected with a full queue");
+    private final LongAdder waitTime = new LongAdder();
+
+    public IQExecutor(
+            final XmppSession session,
+            final int threads,
+            final int queueSize,
+            final Duration slowRequestThreshold) {
+        this.session = session;
+        this.slowRequestMillis = slowRequestThreshold.toMillis();
+        this.executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("iq-handler-%d")
+                                .setDaemon(true)
+                                .build());
+        Metrics.getInstance()
+                .gauge("quicksy_iq_queue_depth", "IQ requests waiting", this::getQueueDepth);
+        Metrics.getInstance()
+                .gauge("quicksy_iq_active", "IQ requests being handled", this::getActiveCount);
+    }
+
+    public IQHandler wrap(final IQHandler handler) {
+        return iq -> {
+            final long enqueued = System.nanoTime();
+            try {
+                executor.execute(() -> handle(handler, iq, enqueued));
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                LOGGER.warn("rejecting " + iq.getFrom() + ". queue is full");
+                return iq.createError(
+                        new StanzaError(StanzaError.Type.WAIT, Condition.RESOURCE_CONSTRAINT));
+            }
+            return null;
+        };
+    }
+
+    private void handle(final IQHandler handler, final IQ iq, final long enqueued) {
+        final long waited = System.nanoTime() - enqueued;
+        final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(waited);
+        waitTime.add(waited);
+        WAIT_TIME.observe(waitedMillis);
+        executed.increment();
+        if (waitedMillis >= slowRequestMillis) {
+            LOGGER.warn(
+                    "IQ from "
+                            + iq.getFrom()
+                            + " waited "
+                            + waitedMillis
+                            + "ms. queue depth is now "
+                            + getQueueDepth());
+        }
+        final PhaseTimer timer = PhaseTimer.start();
+        try {
+            IQ response;
+            try {
+                response = handler.handleRequest(iq);
+            } catch (RuntimeException e) {
+                LOGGER.error("unable to handle IQ from " + iq.getFrom(), e);
+                response = iq.createError(Condition.INTERNAL_SERVER_ERROR);
+            }
+            HANDLER_TIME.observe(timer.getElapsedMillis());
+            if (response != null) {
+                final long sending = System.nanoTime();
+                session.send(response);
+                timer.record("send", SEND_TIME, System.nanoTime() - sending);
+            }
+            final long elapsed = timer.getElapsedMillis();
+            if (elapsed >= slowRequestMillis) {
+                LOGGER.warn("IQ from " + iq.getFrom() + " took " + elapsed + "ms (" + timer + ")");
+            }
+        } finally {
+            timer.close();
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /** @return the accumulated time executed requests have spent waiting in the queue */
+    public long getWaitTimeNanos() {
+        return waitTime.sum();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.xmpp.synchronization;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Feeds a SHA-1 digest through a reusable buffer so that hashing a phone book doesn't need to
+ * materialize it as one large String first. Characters outside of US-ASCII are encoded with the
+ * platform default charset, matching what {@link String#getBytes()} used to produce.
+ */
+class DigestWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<DigestWriter> INSTANCES =
+            ThreadLocal.withInitial(DigestWriter::new);
+
+    private final MessageDigest messageDigest;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private boolean empty = true;
+
+    private DigestWriter() {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            md = null;
+        }
+        this.messageDigest = md;
+    }
+
+    static DigestWriter get() {
+        final DigestWriter writer = INSTANCES.get();
+        if (writer.messageDigest == null) {
+            return null;
+        }
+        writer.reset();
+        return writer;
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    void write(final char c) {
+        if (c < 0x80) {
+            if (position == BUFFER_SIZE) {
+                flush();
+            }
+            buffer[position++] = (byte) c;
+            empty = false;
+        } else {
+            write(String.valueOf(c).getBytes(Charset.defaultCharset()));
+        }
+    }
+
+    void write(final String string) {
+        final int length = string.length();
+        for (int i = 0; i < length; ++i) {
+            if (string.charAt(i) >= 0x80) {
+                write(string.getBytes(Charset.defaultCharset()));
+                return;
+            }
+        }
+        for (int i = 0; i < length; ++i) {
+            if (position == BUFFER_SIZE) {
+                flush();
+            }
+            buffer[position++] = (byte) string.charAt(i);
+        }
+        empty &= length == 0;
+    }
+
+    void write(final byte[] bytes) {
+        if (bytes.length > BUFFER_SIZE - position) {
+            flush();
+            messageDigest.update(bytes);
+        } else {
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+        empty &= bytes.length == 0;
+    }
+
+    byte[] digest() {
+        flush();
+        empty = true;
+        return messageDigest.digest();
+    }
+
+    private void reset() {
+        messageDigest.reset();
+        position = 0;
+        empty = true;
+    }
+
+    private void flush() {
+        messageDigest.update(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -16,9 +16,10 @@
 
 package im.quicksy.server.xmpp.synchronization;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.BaseEncoding;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -30,6 +31,12 @@ import rocks.xmpp.addr.Jid;
 @XmlRootElement
 public class Entry implements Comparable<Entry> {
 
+    private static final char GROUP_SEPARATOR = '\u001d';
+    private static final char RECORD_SEPARATOR = '\u001e';
+
+    private static final Cache<Jid, byte[]> ESCAPED_BARE_JIDS =
+            CacheBuilder.newBuilder().maximumSize(100_000).build();
+
     @XmlAttribute private String number;
 
     @XmlElement(name = "jid", namespace = PhoneBook.NAMESPACE)
@@ -56,28 +63,34 @@ public class Entry implements Comparable<Entry> {
     }
 
     public static String statusQuo(final List<Entry> entries) {
+        final DigestWriter writer = DigestWriter.get();
+        if (writer == null) {
+            return "";
+        }
         Collections.sort(entries);
-        StringBuilder builder = new StringBuilder();
         for (Entry entry : entries) {
-            if (builder.length() != 0) {
-                builder.append('\u001d');
+            if (!writer.isEmpty()) {
+                writer.write(GROUP_SEPARATOR);
             }
-            builder.append(entry.getNumber());
+            writer.write(entry.getNumber());
             List<Jid> jids = entry.getJids();
             Collections.sort(jids);
             for (Jid jid : jids) {
-                builder.append('\u001e');
-                builder.append(jid.asBareJid().toEscapedString());
+                writer.write(RECORD_SEPARATOR);
+                writer.write(escapedBareJid(jid));
             }
         }
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            return "";
+        return BaseEncoding.base64().encode(writer.digest());
+    }
+
+    private static byte[] escapedBareJid(final Jid jid) {
+        final byte[] cached = ESCAPED_BARE_JIDS.getIfPresent(jid);
+        if (cached != null) {
+            return cached;
         }
-        byte[] sha1 = md.digest(builder.toString().getBytes());
-        return BaseEncoding.base64().encode(sha1);
+        final byte[] bytes = jid.asBareJid().toEscapedString().getBytes(Charset.defaultCharset());
+        ESCAPED_BARE_JIDS.put(jid, bytes);
+        return bytes;
     }
 
     @Override
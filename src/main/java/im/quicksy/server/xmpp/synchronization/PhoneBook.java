@@ -16,10 +16,7 @@
 
 package im.quicksy.server.xmpp.synchronization;
 
-import im.quicksy.server.controller.BaseController;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 import javax.xml.bind.annotation.*;
 
 @XmlRootElement(name = "phone-book", namespace = PhoneBook.NAMESPACE)
@@ -32,19 +29,28 @@ public class PhoneBook {
     @XmlElement(name = "entry")
     private List<Entry> entries;
 
-    private PhoneBook() {}
+    private PhoneBook() {
+        // JAXB adds to the existing list instead of creating its own
+        this.entries = new PhoneNumberBuffer();
+    }
 
     public PhoneBook(List<Entry> entries) {
         this.entries = entries;
     }
 
-    public List<String> getPhoneNumbers() {
-        return entries == null
-                ? Collections.emptyList()
-                : entries.stream()
-                        .map(Entry::getNumber)
-                        .filter(n -> BaseController.E164_PATTERN.matcher(n).matches())
-                        .collect(Collectors.toList());
+    /**
+     * @return the sorted, distinct packed phone numbers. Numbers that are not in canonical E.164
+     *     form are left out.
+     */
+    public long[] getPhoneNumberKeys() {
+        if (entries instanceof PhoneNumberBuffer) {
+            return ((PhoneNumberBuffer) entries).toKeys();
+        }
+        final PhoneNumberBuffer buffer = new PhoneNumberBuffer();
+        if (entries != null) {
+            buffer.addAll(entries);
+        }
+        return buffer.toKeys();
     }
 
     public String getVer() {
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.xmpp.synchronization;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Payload of the headline message that tells a user that at least one number of their last
+ * synchronized phone book has joined Quicksy or the directory since.
+ */
+@XmlRootElement(name = "phone-book-changed")
+public final class PhoneBookChanged {}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.xmpp.synchronization;
+
+import im.quicksy.server.utils.E164;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Receiving end of the entries of an incoming {@link PhoneBook}. JAXB fills a preset collection
+ * element by element, so every entry is packed into a long as soon as it has been read and the
+ * {@link Entry} itself becomes garbage right away instead of being kept in a list until the
+ * synchronization has finished. Numbers that can not be packed are dropped.
+ */
+final class PhoneNumberBuffer extends AbstractList<Entry> {
+
+    private long[] keys = new long[64];
+    private int size = 0;
+    private boolean normalized = true;
+
+    @Override
+    public boolean add(final Entry entry) {
+        final long key = E164.pack(entry.getNumber());
+        if (key == 0) {
+            return false;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        normalized = normalized && (size == 0 || keys[size - 1] < key);
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public Entry get(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size);
+        }
+        return new Entry(E164.format(keys[index]));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        normalized = true;
+    }
+
+    /** @return the sorted, distinct packed phone numbers */
+    long[] toKeys() {
+        if (!normalized) {
+            Arrays.sort(keys, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; ++i) {
+                if (distinct == 0 || keys[distinct - 1] != keys[i]) {
+                    keys[distinct++] = keys[i];
+                }
+            }
+            size = distinct;
+            normalized = true;
+        }
+        return Arrays.copyOf(keys, size);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.xmpp.synchronization.compact;
+
+import java.util.Collections;
+import java.util.List;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import rocks.xmpp.addr.Jid;
+
+public class CompactEntry {
+
+    @XmlAttribute private String number;
+
+    @XmlElement(name = "jid")
+    private List<Jid> jids;
+
+    private CompactEntry() {}
+
+    public CompactEntry(String number, List<Jid> jids) {
+        this.number = number;
+        this.jids = jids;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public List<Jid> getJids() {
+        return jids == null ? Collections.emptyList() : jids;
+    }
+}
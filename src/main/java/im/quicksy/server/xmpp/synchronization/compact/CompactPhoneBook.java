@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.xmpp.synchronization.compact;
+
+import im.quicksy.server.utils.E164;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Phone book upload with all numbers in a single numbers element encoded by {@link
+ * PhoneNumberCodec}. The result uses the same encoding for all numbers whose only jid is the
+ * Quicksy account of that number. Numbers with directory entries are listed as entry elements with
+ * all their jids. ver is the same as in the im.quicksy.synchronization:0 namespace.
+ */
+@XmlRootElement(name = "phone-book")
+public class CompactPhoneBook {
+
+    public static final String NAMESPACE = "im.quicksy.synchronization.compact:0";
+
+    @XmlAttribute private String ver;
+
+    @XmlElement(name = "numbers")
+    private String numbers;
+
+    @XmlElement(name = "entry")
+    private List<CompactEntry> entries;
+
+    private CompactPhoneBook() {}
+
+    public CompactPhoneBook(final List<Entry> entries, final String domain) {
+        final long[] accounts = new long[entries.size()];
+        int count = 0;
+        final List<CompactEntry> others = new ArrayList<>();
+        for (final Entry entry : entries) {
+            final List<Jid> jids = entry.getJids();
+            final long key = E164.pack(entry.getNumber());
+            if (key != 0
+                    && jids.size() == 1
+                    && jids.get(0).equals(Jid.of(entry.getNumber(), domain, null))) {
+                accounts[count++] = key;
+            } else {
+                others.add(new CompactEntry(entry.getNumber(), jids));
+            }
+        }
+        final long[] sorted = Arrays.copyOf(accounts, count);
+        Arrays.sort(sorted);
+        this.numbers = count == 0 ? null : PhoneNumberCodec.encode(sorted);
+        this.entries = others.isEmpty() ? null : others;
+    }
+
+    public String getVer() {
+        return ver;
+    }
+
+    /** @return the entries that are not part of the encoded numbers */
+    public List<CompactEntry> getEntries() {
+        return entries == null ? Collections.emptyList() : entries;
+    }
+
+    /** @throws IllegalArgumentException if the numbers are malformed */
+    public long[] getPhoneNumberKeys() {
+        return numbers == null ? new long[0] : PhoneNumberCodec.decode(numbers);
+    }
+}
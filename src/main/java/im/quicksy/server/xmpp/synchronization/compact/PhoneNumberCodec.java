@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.quicksy.server.xmpp.synchronization.compact;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.io.BaseEncoding;
+import java.util.Arrays;
+
+/**
+ * Encodes a sorted set of packed E.164 phone numbers as base64 of unsigned LEB128 varints: the
+ * first number followed by the (positive) difference of every number to its predecessor. Numbers in
+ * a phone book tend to share their prefixes so most differences fit into a few bytes.
+ */
+public final class PhoneNumberCodec {
+
+    private static final long MIN_KEY = 10L;
+    private static final long MAX_KEY = 999_999_999_999_999L;
+    private static final int MAX_VARINT_LENGTH = 8;
+
+    private PhoneNumberCodec() {}
+
+    /** @param keys sorted, distinct packed phone numbers */
+    public static String encode(final long[] keys) {
+        final byte[] bytes = new byte[keys.length * MAX_VARINT_LENGTH];
+        int position = 0;
+        long previous = 0;
+        for (final long key : keys) {
+            if (key <= previous || key < MIN_KEY || key > MAX_KEY) {
+                throw new IllegalArgumentException("Phone numbers must be sorted and distinct");
+            }
+            long value = key - previous;
+            while ((value & ~0x7FL) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+            previous = key;
+        }
+        return BaseEncoding.base64().encode(bytes, 0, position);
+    }
+
+    /**
+     * @return the sorted, distinct packed phone numbers
+     * @throws IllegalArgumentException if the input isn't valid base64, ends in the middle of a
+     *     varint or decodes to something that is not a strictly increasing sequence of E.164
+     *     numbers
+     */
+    public static long[] decode(final String encoded) {
+        final byte[] bytes =
+                BaseEncoding.base64().decode(CharMatcher.whitespace().removeFrom(encoded));
+        final long[] keys = new long[bytes.length];
+        int count = 0;
+        long previous = 0;
+        int position = 0;
+        while (position < bytes.length) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position == bytes.length || shift >= MAX_VARINT_LENGTH * 7) {
+                    throw new IllegalArgumentException("Malformed varint at byte " + position);
+                }
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (value == 0 || value > MAX_KEY - previous || previous + value < MIN_KEY) {
+                throw new IllegalArgumentException("Phone numbers must be strictly increasing");
+            }
+            previous += value;
+            keys[count++] = previous;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+}
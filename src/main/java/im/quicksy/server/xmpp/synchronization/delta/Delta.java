@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.xmpp.synchronization.delta;
+
+import im.quicksy.server.xmpp.synchronization.PhoneBook;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Incremental upload of a phone book. The client references the snapshot the server handed out
+ * in response to its previous synchronization and only transmits the numbers it has added or
+ * removed since then. A request without a snapshot attribute starts from an empty phone book.
+ * The response carries the id of the new snapshot and, unless the ver sent by the client is still
+ * accurate, the result as a {@link PhoneBook} in the im.quicksy.synchronization:0 namespace. If
+ * the response has a since attribute the phone book only lists numbers whose result has changed
+ * relative to that ver; entries without jids are to be removed.
+ */
+@XmlRootElement(name = "delta")
+public class Delta {
+
+    public static final String NAMESPACE = "im.quicksy.synchronization.delta:0";
+
+    @XmlAttribute private String snapshot;
+
+    @XmlAttribute private String ver;
+
+    @XmlAttribute private String since;
+
+    @XmlElement(name = "add")
+    private List<Item> added;
+
+    @XmlElement(name = "remove")
+    private List<Item> removed;
+
+    @XmlElement(name = "phone-book", namespace = PhoneBook.NAMESPACE)
+    private PhoneBook phoneBook;
+
+    private Delta() {}
+
+    public Delta(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public Delta(String snapshot, PhoneBook phoneBook) {
+        this.snapshot = snapshot;
+        this.phoneBook = phoneBook;
+    }
+
+    public Delta(String snapshot, String since, PhoneBook phoneBook) {
+        this.snapshot = snapshot;
+        this.since = since;
+        this.phoneBook = phoneBook;
+    }
+
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public String getVer() {
+        return ver;
+    }
+
+    public List<String> getAdded() {
+        return numbers(added);
+    }
+
+    public List<String> getRemoved() {
+        return numbers(removed);
+    }
+
+    private static List<String> numbers(List<Item> items) {
+        return items == null
+                ? Collections.emptyList()
+                : items.stream().map(Item::getNumber).collect(Collectors.toList());
+    }
+}
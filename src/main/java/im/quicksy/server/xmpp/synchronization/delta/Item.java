@@ -14,32 +14,21 @@
  * limitations under the License.
  */
 
-package im.quicksy.server.throttle;
+package im.quicksy.server.xmpp.synchronization.delta;
 
-import java.time.Duration;
+import javax.xml.bind.annotation.XmlAttribute;
 
-public class Attempt<T> {
-    private final long expires;
-    private final T entity;
+public class Item {
 
-    private Attempt(T entity, long expires) {
-        this.entity = entity;
-        this.expires = expires;
-    }
-
-    public static <T> Attempt<T> create(T entity, long expires) {
-        return new Attempt<T>(entity, expires);
-    }
+    @XmlAttribute private String number;
 
-    public boolean expired(long now) {
-        return expires <= now;
-    }
+    private Item() {}
 
-    public Duration expiresIn(long now) {
-        return Duration.ofNanos(expires - now);
+    public Item(String number) {
+        this.number = number;
     }
 
-    public T getEntity() {
-        return entity;
+    public String getNumber() {
+        return number;
     }
 }
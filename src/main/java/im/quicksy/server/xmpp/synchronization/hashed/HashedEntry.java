@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.xmpp.synchronization.hashed;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import rocks.xmpp.addr.Jid;
+
+public class HashedEntry {
+
+    @XmlAttribute private String hash;
+
+    @XmlElement(name = "jid")
+    private List<Jid> jids;
+
+    private HashedEntry() {}
+
+    public HashedEntry(String hash, List<Jid> jids) {
+        this.hash = hash;
+        this.jids = jids;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public List<Jid> getJids() {
+        return jids;
+    }
+}
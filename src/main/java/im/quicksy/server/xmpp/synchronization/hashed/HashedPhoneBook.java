@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Daniel Gultsch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.quicksy.server.xmpp.synchronization.hashed;
+
+import im.quicksy.server.directory.PhoneNumberHash;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Phone book upload that doesn't reveal the phone numbers themselves. Instead the client sends
+ * the base64 encoded concatenation of the {@link PhoneNumberHash} of every number in a single
+ * hashes element. The result lists entries by the base64 encoded hash of their number; ver works
+ * the same way as in the im.quicksy.synchronization:0 namespace.
+ */
+@XmlRootElement(name = "phone-book")
+public class HashedPhoneBook {
+
+    public static final String NAMESPACE = "im.quicksy.synchronization.hashed:0";
+
+    @XmlAttribute private String ver;
+
+    @XmlElement(name = "hashes")
+    private String hashes;
+
+    @XmlElement(name = "entry")
+    private List<HashedEntry> entries;
+
+    private HashedPhoneBook() {}
+
+    public HashedPhoneBook(List<Entry> entries) {
+        this.entries =
+                entries.stream()
+                        .map(entry -> new HashedEntry(entry.getNumber(), entry.getJids()))
+                        .collect(Collectors.toList());
+    }
+
+    public String getVer() {
+        return ver;
+    }
+
+    /** @throws IllegalArgumentException if the hashes are malformed */
+    public long[] getHashes() {
+        return hashes == null ? new long[0] : PhoneNumberHash.decode(hashes);
+    }
+}
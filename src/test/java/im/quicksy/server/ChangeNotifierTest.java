@@ -0,0 +1,69 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import com.google.common.base.Ticker;
+import im.quicksy.server.synchronization.ChangeNotifier;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class ChangeNotifierTest {
+
+    private static final Jid ALICE = Jid.of("+15555550100@quicksy.im");
+    private static final Jid BOB = Jid.of("+15555550101@quicksy.im");
+
+    @Test
+    public void interestedUsersArePending() {
+        final ChangeNotifier notifier = new ChangeNotifier(1000, Duration.ofMinutes(1));
+        notifier.subscribe(ALICE, new long[] {15555550200L, 15555550201L});
+        notifier.subscribe(BOB, new long[] {15555550201L});
+        notifier.changed(15555550201L);
+        notifier.changed(15555550202L);
+        assertEquals(
+                new HashSet<>(Arrays.asList(ALICE, BOB)), new HashSet<>(notifier.takePending()));
+        assertTrue(notifier.takePending().isEmpty());
+
+        notifier.subscribe(ALICE, new long[] {15555550202L});
+        notifier.changed(15555550200L);
+        notifier.changed(15555550202L);
+        assertEquals(Collections.singletonList(ALICE), notifier.takePending());
+        assertEquals(2, notifier.getPhoneNumberCount());
+    }
+
+    @Test
+    public void evictedUsersAreForgotten() {
+        final ChangeNotifier notifier = new ChangeNotifier(4, Duration.ofMinutes(1));
+        notifier.subscribe(ALICE, new long[] {15555550200L, 15555550201L});
+        notifier.subscribe(BOB, new long[] {15555550202L, 15555550203L});
+        notifier.changed(15555550200L);
+        assertTrue(notifier.takePending().isEmpty());
+        assertEquals(2, notifier.getPhoneNumberCount());
+    }
+
+    @Test
+    public void resubscribeAfterExpiry() {
+        final AtomicLong now = new AtomicLong();
+        final Ticker ticker =
+                new Ticker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                };
+        final ChangeNotifier notifier = new ChangeNotifier(1000, Duration.ofMinutes(1), ticker);
+        notifier.subscribe(ALICE, new long[] {15555550200L, 15555550201L});
+        now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        notifier.subscribe(ALICE, new long[] {15555550201L, 15555550202L});
+        notifier.changed(15555550201L);
+        assertEquals(Collections.singletonList(ALICE), notifier.takePending());
+        notifier.changed(15555550200L);
+        assertTrue(notifier.takePending().isEmpty());
+        assertEquals(2, notifier.getPhoneNumberCount());
+    }
+}
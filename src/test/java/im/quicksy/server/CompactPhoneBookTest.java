@@ -0,0 +1,95 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.xmpp.synchronization.Entry;
+import im.quicksy.server.xmpp.synchronization.compact.CompactEntry;
+import im.quicksy.server.xmpp.synchronization.compact.CompactPhoneBook;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class CompactPhoneBookTest {
+
+    private static final String DOMAIN = "quicksy.im";
+
+    @Test
+    public void accountsAreEncodedAndEverythingElseIsListed() throws JAXBException {
+        final Entry both = account("+15555550103");
+        both.addJid(Jid.of("both@example.com"));
+        final List<Entry> entries =
+                Arrays.asList(
+                        account("+15555550102"),
+                        account("+15555550101"),
+                        both,
+                        new Entry("+15555550104", Jid.of("directory@example.com")),
+                        new Entry("+15555550105", Jid.of("+15555550105", "example.com", null)),
+                        new Entry("+15555550106"));
+        final CompactPhoneBook phoneBook = roundTrip(new CompactPhoneBook(entries, DOMAIN));
+        assertTrue(
+                Arrays.equals(
+                        new long[] {15555550101L, 15555550102L},
+                        phoneBook.getPhoneNumberKeys()));
+        final List<CompactEntry> listed = phoneBook.getEntries();
+        assertEquals(4, listed.size());
+        assertEquals("+15555550103", listed.get(0).getNumber());
+        assertEquals(both.getJids(), listed.get(0).getJids());
+        assertEquals("+15555550104", listed.get(1).getNumber());
+        assertEquals(
+                Collections.singletonList(Jid.of("directory@example.com")),
+                listed.get(1).getJids());
+        assertEquals("+15555550105", listed.get(2).getNumber());
+        assertEquals(
+                Collections.singletonList(Jid.of("+15555550105", "example.com", null)),
+                listed.get(2).getJids());
+        assertEquals("+15555550106", listed.get(3).getNumber());
+        assertTrue(listed.get(3).getJids().isEmpty());
+    }
+
+    @Test
+    public void onlyAccounts() throws JAXBException {
+        final CompactPhoneBook phoneBook =
+                roundTrip(
+                        new CompactPhoneBook(
+                                Arrays.asList(account("+15555550101"), account("+4915123456789")),
+                                DOMAIN));
+        assertTrue(
+                Arrays.equals(
+                        new long[] {4915123456789L, 15555550101L},
+                        phoneBook.getPhoneNumberKeys()));
+        assertTrue(phoneBook.getEntries().isEmpty());
+    }
+
+    @Test
+    public void noAccounts() throws JAXBException {
+        final CompactPhoneBook phoneBook =
+                roundTrip(
+                        new CompactPhoneBook(
+                                Collections.singletonList(
+                                        new Entry("+15555550104", Jid.of("directory@example.com"))),
+                                DOMAIN));
+        assertEquals(0, phoneBook.getPhoneNumberKeys().length);
+        assertEquals(1, phoneBook.getEntries().size());
+    }
+
+    private static Entry account(final String phoneNumber) {
+        final Entry entry = new Entry(phoneNumber);
+        entry.addJid(Jid.of(phoneNumber, DOMAIN, null));
+        return entry;
+    }
+
+    private static CompactPhoneBook roundTrip(final CompactPhoneBook phoneBook)
+            throws JAXBException {
+        final JAXBContext context = JAXBContext.newInstance(CompactPhoneBook.class);
+        final StringWriter writer = new StringWriter();
+        context.createMarshaller().marshal(phoneBook, writer);
+        return (CompactPhoneBook)
+                context.createUnmarshaller().unmarshal(new StringReader(writer.toString()));
+    }
+}
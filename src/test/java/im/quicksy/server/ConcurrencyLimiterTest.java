@@ -0,0 +1,47 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.throttle.ConcurrencyLimiter;
+import java.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ConcurrencyLimiterTest {
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void rejectOverLimit() throws ConcurrencyLimiter.RetryInException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, Duration.ofHours(1));
+        limiter.acquire();
+        expectedException.expect(ConcurrencyLimiter.RetryInException.class);
+        limiter.acquire();
+    }
+
+    @Test
+    public void fastOperationsRaiseLimit() throws ConcurrencyLimiter.RetryInException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, Duration.ofHours(1));
+        for (int i = 0; i < 100; ++i) {
+            limiter.acquire().release();
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void failuresLowerLimit() throws ConcurrencyLimiter.RetryInException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 8, Duration.ofHours(1));
+        for (int i = 0; i < 100; ++i) {
+            limiter.acquire().release();
+        }
+        for (int i = 0; i < 100; ++i) {
+            final ConcurrencyLimiter.Permit permit = limiter.acquire();
+            permit.drop();
+            permit.drop();
+        }
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
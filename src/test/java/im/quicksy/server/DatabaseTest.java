@@ -23,11 +23,16 @@ import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import im.quicksy.server.configuration.DatabaseConfiguration;
 import im.quicksy.server.configuration.DatabaseConfigurationBundle;
 import im.quicksy.server.database.Database;
+import im.quicksy.server.database.Migrations;
 import im.quicksy.server.pojo.Entry;
 import im.quicksy.server.pojo.Payment;
 import im.quicksy.server.pojo.PaymentMethod;
-import java.util.Collections;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import org.junit.Test;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
 import rocks.xmpp.addr.Jid;
 
 public class DatabaseTest {
@@ -37,9 +42,12 @@ public class DatabaseTest {
     private static final Jid TEST_USER = Jid.of("test@example.com");
 
     private static final String TEST_PHONE_NUMBER = "+15555222433";
+    private static final long TEST_PHONE_NUMBER_KEY = 15555222433L;
 
     private static final DatabaseConfigurationBundle IN_MEMORY_DATABASE_CONFIGURATION;
 
+    private static final DatabaseConfigurationBundle NUMERIC_DATABASE_CONFIGURATION;
+
     static {
         IN_MEMORY_DATABASE_CONFIGURATION =
                 new DatabaseConfigurationBundle.Builder()
@@ -48,6 +56,16 @@ public class DatabaseTest {
                         .setQuicksyConfiguration(
                                 new DatabaseConfiguration.Builder().setUrl(JDBC_URL).build())
                         .build();
+        NUMERIC_DATABASE_CONFIGURATION =
+                new DatabaseConfigurationBundle.Builder()
+                        .setEjabberdConfiguration(
+                                new DatabaseConfiguration.Builder().setUrl(JDBC_URL).build())
+                        .setQuicksyConfiguration(
+                                new DatabaseConfiguration.Builder()
+                                        .setUrl(JDBC_URL)
+                                        .setNumericPhoneNumbers(true)
+                                        .build())
+                        .build();
     }
 
     @Test
@@ -72,13 +90,71 @@ public class DatabaseTest {
         final Entry entry = new Entry(TEST_USER);
         entry.setPhoneNumber(PhoneNumberUtil.getInstance().parse(TEST_PHONE_NUMBER, "us"));
         assertTrue(database.updatePaymentAndCreateEntry(payment, entry));
-        assertEquals(
-                0,
-                database.findDirectoryUsers(Collections.singletonList(TEST_PHONE_NUMBER)).size());
+        assertEquals(0, database.findDirectoryUsers(new long[] {TEST_PHONE_NUMBER_KEY}).size());
         entry.setVerified(true);
         database.updateEntry(entry);
-        assertEquals(
-                1,
-                database.findDirectoryUsers(Collections.singletonList(TEST_PHONE_NUMBER)).size());
+        assertEquals(1, database.findDirectoryUsers(new long[] {TEST_PHONE_NUMBER_KEY}).size());
+    }
+
+    @Test
+    public void searchByNumericPhoneNumber() throws NumberParseException {
+        final Database database = new Database(NUMERIC_DATABASE_CONFIGURATION);
+        final Payment payment = new Payment(TEST_USER, PaymentMethod.VOUCHER);
+        payment.setToken("test");
+        database.createPayment(payment);
+        final Entry entry = new Entry(TEST_USER);
+        entry.setPhoneNumber(PhoneNumberUtil.getInstance().parse(TEST_PHONE_NUMBER, "us"));
+        entry.setVerified(true);
+        assertTrue(database.updatePaymentAndCreateEntry(payment, entry));
+        database.getPhoneNumberKeyBackfill().join();
+        final List<Database.RawEntry> rawEntries =
+                database.findDirectoryUsers(new long[] {TEST_PHONE_NUMBER_KEY, 15555222434L});
+        assertEquals(1, rawEntries.size());
+        assertEquals(TEST_PHONE_NUMBER, rawEntries.get(0).getPhoneNumber());
+    }
+
+    @Test
+    public void backfillNumericPhoneNumbers() throws IOException {
+        final File file = File.createTempFile("quicksy", ".db");
+        file.deleteOnExit();
+        final String url = "jdbc:sqlite:" + file.getAbsolutePath();
+        final Sql2o sql2o = new Sql2o(url, null, null);
+        Migrations.migrate(sql2o);
+        try (Connection connection = sql2o.open()) {
+            connection
+                    .createQuery(
+                            "insert into entries(jid,phoneNumber,verified)"
+                                    + " values(:jid,:phoneNumber,1)")
+                    .addParameter("jid", TEST_USER.toString())
+                    .addParameter("phoneNumber", TEST_PHONE_NUMBER)
+                    .executeUpdate();
+        }
+        final Database database =
+                new Database(
+                        new DatabaseConfigurationBundle.Builder()
+                                .setEjabberdConfiguration(
+                                        new DatabaseConfiguration.Builder().setUrl(url).build())
+                                .setQuicksyConfiguration(
+                                        new DatabaseConfiguration.Builder()
+                                                .setUrl(url)
+                                                .setNumericPhoneNumbers(true)
+                                                .build())
+                                .build());
+        assertEquals(1L, (long) database.getPhoneNumberKeyBackfill().join());
+        assertEquals(1, database.findDirectoryUsers(new long[] {TEST_PHONE_NUMBER_KEY}).size());
+    }
+
+    @Test
+    public void migrationsAreIdempotent() throws IOException {
+        final File file = File.createTempFile("quicksy", ".db");
+        file.deleteOnExit();
+        final Sql2o sql2o = new Sql2o("jdbc:sqlite:" + file.getAbsolutePath(), null, null);
+        Migrations.migrate(sql2o);
+        assertEquals(Migrations.latestVersion(), Migrations.currentVersion(sql2o));
+        try (Connection connection = sql2o.open()) {
+            connection.createQuery("delete from schema_version").executeUpdate();
+        }
+        Migrations.migrate(sql2o);
+        assertEquals(Migrations.latestVersion(), Migrations.currentVersion(sql2o));
     }
 }
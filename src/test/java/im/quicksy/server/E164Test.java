@@ -0,0 +1,55 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.utils.E164;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class E164Test {
+
+    private static final Pattern E164_PATTERN = Pattern.compile("^\\+?[1-9]\\d{1,14}$");
+
+    private static final String ALPHABET = "+0123456789 a\n";
+
+    @Test
+    public void agreesWithRegularExpression() {
+        final Random random = new Random(23);
+        for (int i = 0; i < 100_000; ++i) {
+            final char[] input = new char[random.nextInt(18)];
+            for (int j = 0; j < input.length; ++j) {
+                input[j] =
+                        random.nextInt(4) == 0
+                                ? ALPHABET.charAt(random.nextInt(ALPHABET.length()))
+                                : (char) ('0' + random.nextInt(10));
+            }
+            final String phoneNumber = new String(input);
+            assertEquals(
+                    phoneNumber,
+                    E164_PATTERN.matcher(phoneNumber).matches(),
+                    E164.isValid(phoneNumber));
+        }
+    }
+
+    @Test
+    public void pack() {
+        assertEquals(4915123456789L, E164.pack("+4915123456789"));
+        assertEquals(999999999999999L, E164.pack("+999999999999999"));
+        assertEquals(0, E164.pack("4915123456789"));
+        assertEquals(0, E164.pack("+1"));
+        assertEquals(0, E164.pack("+1234567890123456"));
+        assertEquals(0, E164.pack(" +4915123456789"));
+        assertEquals(0, E164.pack(null));
+        assertEquals("+4915123456789", E164.format(E164.pack("+4915123456789")));
+    }
+
+    @Test
+    public void packLenient() {
+        assertEquals(4915123456789L, E164.packLenient("4915123456789"));
+        assertEquals(4915123456789L, E164.packLenient(" +49 151 2345 6789\n"));
+        assertEquals(0, E164.packLenient("+49 151 2345 6789+"));
+        assertEquals(0, E164.packLenient("+ 0151 23456789"));
+        assertEquals(0, E164.packLenient("   "));
+    }
+}
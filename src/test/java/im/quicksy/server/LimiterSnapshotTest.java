@@ -0,0 +1,107 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.throttle.KeyCodec;
+import im.quicksy.server.throttle.LimiterSnapshot;
+import im.quicksy.server.throttle.RateLimiter;
+import im.quicksy.server.throttle.Strategy;
+import im.quicksy.server.throttle.VolumeLimiter;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import org.junit.Test;
+
+public class LimiterSnapshotTest {
+
+    private static final Strategy RATE = Strategy.of(Duration.ofHours(1), 2);
+
+    private static final Strategy VOLUME = Strategy.of(Duration.ofDays(1), 3);
+
+    @Test
+    public void restoreRateLimiter() throws IOException, RateLimiter.RetryInException {
+        final File file = File.createTempFile("limiters", ".bin");
+        file.deleteOnExit();
+        final RateLimiter<String> before = RateLimiter.of("snapshot_rate", 100, RATE);
+        before.attempt("a");
+        before.attempt("a");
+        before.attempt("b");
+        assertEquals(2, new LimiterSnapshot(file).add(before, KeyCodec.STRING).save());
+
+        final RateLimiter<String> after = RateLimiter.of("snapshot_rate", 100, RATE);
+        assertEquals(2, new LimiterSnapshot(file).add(after, KeyCodec.STRING).restore());
+        assertEquals(2, after.size());
+        after.attempt("b");
+        try {
+            after.attempt("a");
+            fail("restored attempts should still count");
+        } catch (final RateLimiter.RetryInException e) {
+            assertTrue(e.getInterval().compareTo(Duration.ofMinutes(59)) > 0);
+        }
+    }
+
+    @Test
+    public void restoreGcra() throws IOException, RateLimiter.RetryInException {
+        final File file = File.createTempFile("limiters", ".bin");
+        file.deleteOnExit();
+        final Strategy gcra = Strategy.gcra(Duration.ofHours(1), 1);
+        final RateLimiter<String> before = RateLimiter.of("snapshot_gcra", 100, gcra);
+        before.attempt("a");
+        new LimiterSnapshot(file).add(before, KeyCodec.STRING).save();
+
+        final RateLimiter<String> after = RateLimiter.of("snapshot_gcra", 100, gcra);
+        assertEquals(1, new LimiterSnapshot(file).add(after, KeyCodec.STRING).restore());
+        try {
+            after.attempt("a");
+            fail("restored arrival time should still count");
+        } catch (final RateLimiter.RetryInException e) {
+            assertTrue(e.getInterval().compareTo(Duration.ofMinutes(59)) > 0);
+        }
+    }
+
+    @Test
+    public void restoreVolumeLimiter() throws IOException, VolumeLimiter.RetryInException {
+        final File file = File.createTempFile("limiters", ".bin");
+        file.deleteOnExit();
+        final VolumeLimiter<String, Long> before =
+                new VolumeLimiter<>("snapshot_volume", 100, VOLUME, Long::longValue);
+        before.attempt("a", 1, 2);
+        new LimiterSnapshot(file).add(before, KeyCodec.STRING).save();
+
+        final VolumeLimiter<String, Long> after =
+                new VolumeLimiter<>("snapshot_volume", 100, VOLUME, Long::longValue);
+        new LimiterSnapshot(file).add(after, KeyCodec.STRING).restore();
+        after.attempt("a", 1, 2, 3);
+        try {
+            after.attempt("a", 4);
+            fail("restored charges should still count");
+        } catch (final VolumeLimiter.RetryInException e) {
+            assertTrue(e.getInterval().compareTo(Duration.ofHours(23)) > 0);
+        }
+    }
+
+    @Test
+    public void skipUnknownLimiters() throws IOException, RateLimiter.RetryInException {
+        final File file = File.createTempFile("limiters", ".bin");
+        file.deleteOnExit();
+        final RateLimiter<String> removed = RateLimiter.of("snapshot_removed", 100, RATE);
+        final RateLimiter<String> kept = RateLimiter.of("snapshot_kept", 100, RATE);
+        removed.attempt("a");
+        kept.attempt("a");
+        new LimiterSnapshot(file)
+                .add(removed, KeyCodec.STRING)
+                .add(kept, KeyCodec.STRING)
+                .save();
+
+        final RateLimiter<String> restored = RateLimiter.of("snapshot_kept", 100, RATE);
+        assertEquals(1, new LimiterSnapshot(file).add(restored, KeyCodec.STRING).restore());
+        assertEquals(1, restored.size());
+    }
+
+    @Test
+    public void missingSnapshot() throws IOException {
+        final File file = new File(System.getProperty("java.io.tmpdir"), "no-such-snapshot.bin");
+        final RateLimiter<String> limiter = RateLimiter.of("snapshot_missing", 100, RATE);
+        assertEquals(0, new LimiterSnapshot(file).add(limiter, KeyCodec.STRING).restore());
+    }
+}
@@ -0,0 +1,71 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.utils.LongIntMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class LongIntMapTest {
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void putGetRemove() {
+        final LongIntMap map = new LongIntMap();
+        assertEquals(LongIntMap.MISSING, map.get(4915123456789L));
+        assertEquals(LongIntMap.MISSING, map.put(4915123456789L, 1));
+        assertEquals(1, map.put(4915123456789L, 2));
+        assertEquals(2, map.get(4915123456789L));
+        assertEquals(1, map.size());
+        assertEquals(2, map.remove(4915123456789L));
+        assertEquals(LongIntMap.MISSING, map.remove(4915123456789L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void zeroIsAKey() {
+        final LongIntMap map = new LongIntMap();
+        map.put(0, 7);
+        map.put(1, 8);
+        assertEquals(7, map.get(0));
+        assertEquals(2, map.size());
+        assertEquals(7, map.remove(0));
+        assertEquals(LongIntMap.MISSING, map.get(0));
+        assertEquals(8, map.get(1));
+    }
+
+    @Test
+    public void negativeValuesAreRejected() {
+        expectedException.expect(IllegalArgumentException.class);
+        new LongIntMap().put(1, LongIntMap.MISSING);
+    }
+
+    @Test
+    public void agreesWithHashMap() {
+        final Random random = new Random(42);
+        final LongIntMap map = new LongIntMap();
+        final Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; ++i) {
+            // few distinct keys so that runs are long and removals shift a lot
+            final long key = random.nextInt(5_000) * 1024L - 1024L;
+            if (random.nextInt(3) == 0) {
+                final Integer removed = expected.remove(key);
+                assertEquals(removed == null ? LongIntMap.MISSING : removed, map.remove(key));
+            } else {
+                final int value = random.nextInt(Integer.MAX_VALUE);
+                final Integer previous = expected.put(key, value);
+                assertEquals(previous == null ? LongIntMap.MISSING : previous, map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -1024L; key < 5_000 * 1024L; key += 1024L) {
+            final Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntMap.MISSING : value, map.get(key));
+        }
+    }
+}
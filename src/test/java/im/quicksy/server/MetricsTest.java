@@ -0,0 +1,72 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.metrics.Histogram;
+import im.quicksy.server.metrics.Metrics;
+import im.quicksy.server.metrics.PhaseTimer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        final Metrics metrics = new Metrics();
+        final Histogram histogram = metrics.histogram("test_histogram", "Test histogram", 10, 100);
+        histogram.observe(5);
+        histogram.observe(10);
+        histogram.observe(50);
+        histogram.observe(1_000);
+        assertEquals(4, histogram.getCount());
+        assertEquals(1_065, histogram.getSum());
+        final String rendered = metrics.render();
+        assertTrue(rendered.contains("# TYPE test_histogram histogram\n"));
+        assertTrue(rendered.contains("test_histogram_bucket{le=\"10\"} 2\n"));
+        assertTrue(rendered.contains("test_histogram_bucket{le=\"100\"} 3\n"));
+        assertTrue(rendered.contains("test_histogram_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(rendered.contains("test_histogram_count 4\n"));
+    }
+
+    @Test
+    public void countersAreRegisteredOnce() {
+        final Metrics metrics = new Metrics();
+        metrics.counter("test_total", "Test counter").add(2);
+        metrics.counter("test_total", "Test counter").increment();
+        metrics.gauge("test_gauge", "Test gauge", () -> 42);
+        final String rendered = metrics.render();
+        assertTrue(
+                rendered.contains(
+                        "# HELP test_total Test counter\n"
+                                + "# TYPE test_total counter\n"
+                                + "test_total 3\n"));
+        assertTrue(rendered.contains("# TYPE test_gauge gauge\ntest_gauge 42\n"));
+    }
+
+    @Test
+    public void suppliedCounters() {
+        final Metrics metrics = new Metrics();
+        metrics.counter("test_supplied_total", "Test counter", () -> 7);
+        final String rendered = metrics.render();
+        assertTrue(
+                rendered.contains(
+                        "# TYPE test_supplied_total counter\n" + "test_supplied_total 7\n"));
+    }
+
+    @Test
+    public void phasesAreRecorded() {
+        final Histogram histogram = new Histogram(Histogram.MILLISECONDS);
+        final PhaseTimer timer = PhaseTimer.start();
+        try {
+            assertSame(timer, PhaseTimer.current());
+            PhaseTimer.current().lap("first", histogram);
+            timer.record("second", histogram, TimeUnit.MILLISECONDS.toNanos(7));
+        } finally {
+            timer.close();
+        }
+        assertNotSame(timer, PhaseTimer.current());
+        assertEquals(2, histogram.getCount());
+        assertTrue(timer.toString().startsWith("first="));
+        assertTrue(timer.toString().endsWith(" second=7ms"));
+    }
+}
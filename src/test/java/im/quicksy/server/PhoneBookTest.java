@@ -0,0 +1,52 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.xmpp.synchronization.Entry;
+import im.quicksy.server.xmpp.synchronization.PhoneBook;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class PhoneBookTest {
+
+    @Test
+    public void receivedNumbersArePackedSortedAndDistinct() throws JAXBException {
+        final String xml =
+                "<phone-book xmlns='im.quicksy.synchronization:0' ver='abc'>"
+                        + "<entry number='+15555550102'/>"
+                        + "<entry number='+15555550101'/>"
+                        + "<entry number='15555550103'/>"
+                        + "<entry number='+15555550102'/>"
+                        + "</phone-book>";
+        final PhoneBook phoneBook =
+                (PhoneBook)
+                        JAXBContext.newInstance(PhoneBook.class)
+                                .createUnmarshaller()
+                                .unmarshal(new StringReader(xml));
+        assertEquals("abc", phoneBook.getVer());
+        final long[] keys = phoneBook.getPhoneNumberKeys();
+        assertEquals(2, keys.length);
+        assertEquals(15555550101L, keys[0]);
+        assertEquals(15555550102L, keys[1]);
+    }
+
+    @Test
+    public void resultsAreMarshalledAsBefore() throws JAXBException {
+        final Entry entry = new Entry("+15555550101");
+        entry.addJid(Jid.of("+15555550101@quicksy.im"));
+        final Marshaller marshaller = JAXBContext.newInstance(PhoneBook.class).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        final StringWriter writer = new StringWriter();
+        marshaller.marshal(new PhoneBook(Collections.singletonList(entry)), writer);
+        final String xml = writer.toString();
+        assertTrue(xml, xml.contains("entry number=\"+15555550101\""));
+        assertTrue(xml, xml.contains("+15555550101@quicksy.im</"));
+        assertTrue(xml, xml.contains("im.quicksy.synchronization:0"));
+    }
+}
@@ -0,0 +1,45 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import com.google.common.io.BaseEncoding;
+import im.quicksy.server.xmpp.synchronization.compact.PhoneNumberCodec;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PhoneNumberCodecTest {
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void roundTrip() {
+        final Random random = new Random(7);
+        final long[] keys = new long[2000];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = 4915100000000L + random.nextInt(1_000_000_000);
+        }
+        keys[0] = 10;
+        keys[1] = 999_999_999_999_999L;
+        Arrays.sort(keys);
+        final long[] distinct = Arrays.stream(keys).distinct().toArray();
+        final String encoded = PhoneNumberCodec.encode(distinct);
+        assertTrue(encoded.length() < distinct.length * 8);
+        assertTrue(Arrays.equals(distinct, PhoneNumberCodec.decode(encoded)));
+        assertEquals(0, PhoneNumberCodec.decode("").length);
+    }
+
+    @Test
+    public void truncatedVarint() {
+        expectedException.expect(IllegalArgumentException.class);
+        PhoneNumberCodec.decode(BaseEncoding.base64().encode(new byte[] {(byte) 0x80}));
+    }
+
+    @Test
+    public void duplicateNumber() {
+        expectedException.expect(IllegalArgumentException.class);
+        PhoneNumberCodec.decode(BaseEncoding.base64().encode(new byte[] {0x20, 0x00}));
+    }
+}
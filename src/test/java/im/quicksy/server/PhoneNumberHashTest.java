@@ -0,0 +1,53 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Longs;
+import im.quicksy.server.directory.DirectoryIndex;
+import im.quicksy.server.directory.PhoneNumberHash;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PhoneNumberHashTest {
+
+    private static final String DOMAIN = "quicksy.im";
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void decodeConcatenatedHashes() {
+        final long a = PhoneNumberHash.of("+15555550300");
+        final long b = PhoneNumberHash.of("+15555550301");
+        final String encoded =
+                BaseEncoding.base64()
+                        .encode(Bytes.concat(Longs.toByteArray(a), Longs.toByteArray(b)));
+        final long[] decoded = PhoneNumberHash.decode(encoded);
+        assertEquals(2, decoded.length);
+        assertEquals(a, decoded[0]);
+        assertEquals(b, decoded[1]);
+    }
+
+    @Test
+    public void rejectTruncatedHashes() {
+        expectedException.expect(IllegalArgumentException.class);
+        PhoneNumberHash.decode(BaseEncoding.base64().encode(new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    public void findByHash() {
+        final DirectoryIndex index = DirectoryIndex.getInstance();
+        index.accountCreated("+15555550302");
+        final long hash = PhoneNumberHash.of("+15555550302");
+        final List<im.quicksy.server.xmpp.synchronization.Entry> entries =
+                index.findHashed(DOMAIN, new long[] {hash, hash, PhoneNumberHash.of("+1555")});
+        assertEquals(1, entries.size());
+        assertEquals(PhoneNumberHash.encode(hash), entries.get(0).getNumber());
+        index.accountRemoved("+15555550302");
+        assertEquals(Collections.emptyList(), index.findHashed(DOMAIN, new long[] {hash}));
+    }
+}
@@ -0,0 +1,37 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import im.quicksy.server.directory.DirectoryIndex;
+import im.quicksy.server.utils.PhoneNumberKeys;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PhoneNumberKeysTest {
+
+    private static final String[] PHONE_NUMBERS = {
+        "+15555222433", "+4915123456789", "+390612345678", "+8613800138000"
+    };
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void roundTripMatchesParser() throws NumberParseException {
+        for (final String e164 : PHONE_NUMBERS) {
+            final PhoneNumber parsed = PhoneNumberUtil.getInstance().parse(e164, "us");
+            final long key = PhoneNumberKeys.of(parsed);
+            assertEquals(DirectoryIndex.key(e164), key);
+            assertEquals(parsed, PhoneNumberKeys.toPhoneNumber(key));
+        }
+    }
+
+    @Test
+    public void unknownCallingCode() {
+        expectedException.expect(IllegalArgumentException.class);
+        PhoneNumberKeys.toPhoneNumber(999123456L);
+    }
+}
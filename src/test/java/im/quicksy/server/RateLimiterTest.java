@@ -0,0 +1,146 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.throttle.RateLimiter;
+import im.quicksy.server.throttle.Strategy;
+import java.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class RateLimiterTest {
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void throttleAfterAttempts() throws RateLimiter.RetryInException {
+        final RateLimiter<String> limiter = RateLimiter.of(Strategy.of(Duration.ofHours(1), 3));
+        for (int i = 0; i < 3; ++i) {
+            limiter.attempt("a");
+            limiter.attempt("b");
+        }
+        expectedException.expect(RateLimiter.RetryInException.class);
+        limiter.attempt("a");
+    }
+
+    @Test
+    public void retryWhenOldestAttemptExpires() {
+        final RateLimiter<String> limiter =
+                RateLimiter.of(
+                        Strategy.of(Duration.ofMinutes(1), 2),
+                        Strategy.of(Duration.ofHours(1), 10));
+        final Duration retry = attemptUntilThrottled(limiter);
+        assertTrue(retry.compareTo(Duration.ofSeconds(59)) > 0);
+        assertTrue(retry.compareTo(Duration.ofMinutes(1)) <= 0);
+    }
+
+    @Test
+    public void exhaustedStrategyDeterminesRetry() {
+        final RateLimiter<String> limiter =
+                RateLimiter.of(
+                        Strategy.of(Duration.ofMillis(1), 100),
+                        Strategy.of(Duration.ofHours(1), 5));
+        assertTrue(attemptUntilThrottled(limiter).compareTo(Duration.ofMinutes(59)) > 0);
+    }
+
+    @Test
+    public void gcraSpacesAttemptsAfterBurst() {
+        final RateLimiter<String> limiter = RateLimiter.of(Strategy.gcra(Duration.ofHours(1), 4));
+        final Duration retry = attemptUntilThrottled(limiter);
+        assertTrue(retry.compareTo(Duration.ofMinutes(14)) > 0);
+        assertTrue(retry.compareTo(Duration.ofMinutes(15)) <= 0);
+    }
+
+    @Test
+    public void gcraAlongsideWindow() {
+        final RateLimiter<String> limiter =
+                RateLimiter.of(
+                        Strategy.of(Duration.ofMinutes(1), 10),
+                        Strategy.gcra(Duration.ofHours(1), 3));
+        assertTrue(attemptUntilThrottled(limiter).compareTo(Duration.ofMinutes(19)) > 0);
+    }
+
+    @Test
+    public void loweredLimitsKeepAttempts() throws RateLimiter.RetryInException {
+        final RateLimiter<String> limiter = RateLimiter.of(Strategy.of(Duration.ofHours(1), 5));
+        limiter.attempt("a");
+        limiter.attempt("a");
+        limiter.setStrategies(Strategy.of(Duration.ofHours(1), 3));
+        limiter.attempt("a");
+        expectedException.expect(RateLimiter.RetryInException.class);
+        limiter.attempt("a");
+    }
+
+    @Test
+    public void attemptsAreReplayedForGcra() throws RateLimiter.RetryInException {
+        final RateLimiter<String> limiter = RateLimiter.of(Strategy.of(Duration.ofHours(1), 5));
+        limiter.attempt("a");
+        limiter.attempt("a");
+        limiter.attempt("a");
+        limiter.setStrategies(Strategy.gcra(Duration.ofHours(1), 4));
+        limiter.attempt("a");
+        expectedException.expect(RateLimiter.RetryInException.class);
+        limiter.attempt("a");
+    }
+
+    @Test
+    public void expiry() throws RateLimiter.RetryInException, InterruptedException {
+        final RateLimiter<String> limiter = RateLimiter.of(Strategy.of(Duration.ofSeconds(1), 2));
+        limiter.attempt("a");
+        limiter.attempt("a");
+        Thread.sleep(1100);
+        limiter.attempt("a");
+        limiter.attempt("a");
+    }
+
+    @Test
+    public void evictClosestToExpiry() throws RateLimiter.RetryInException, InterruptedException {
+        final RateLimiter<String> limiter =
+                RateLimiter.of("rate_limiter_test", 2, Strategy.of(Duration.ofHours(1), 1));
+        limiter.attempt("a");
+        Thread.sleep(10);
+        limiter.attempt("b");
+        Thread.sleep(10);
+        limiter.attempt("c");
+        assertEquals(2, limiter.size());
+        assertEquals(1, limiter.getEvictedCount());
+        limiter.attempt("a");
+    }
+
+    @Test(timeout = 10000)
+    public void evictWhenKeysShareDeadline() throws RateLimiter.RetryInException {
+        final RateLimiter<Integer> limiter =
+                RateLimiter.of(
+                        "rate_limiter_flood_test", 10000, Strategy.of(Duration.ofDays(1), 1));
+        for (int i = 0; i < 200000; ++i) {
+            limiter.attempt(i);
+        }
+        assertEquals(10000, limiter.size());
+        assertEquals(190000, limiter.getEvictedCount());
+        // the oldest keys are evicted first; the most recent ones are still throttled
+        limiter.attempt(0);
+        expectedException.expect(RateLimiter.RetryInException.class);
+        limiter.attempt(199999);
+    }
+
+    @Test
+    public void expireInBackground() throws RateLimiter.RetryInException, InterruptedException {
+        final RateLimiter<String> limiter = RateLimiter.of(Strategy.of(Duration.ofMillis(100), 1));
+        limiter.attempt("a");
+        limiter.attempt("b");
+        assertEquals(2, limiter.size());
+        Thread.sleep(3000);
+        assertEquals(0, limiter.size());
+    }
+
+    private static Duration attemptUntilThrottled(final RateLimiter<String> limiter) {
+        while (true) {
+            try {
+                limiter.attempt("a");
+            } catch (RateLimiter.RetryInException e) {
+                return e.getInterval();
+            }
+        }
+    }
+}
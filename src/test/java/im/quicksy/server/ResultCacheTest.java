@@ -0,0 +1,40 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.synchronization.ResultCache;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class ResultCacheTest {
+
+    private static final Jid USER = Jid.of("+15555550100@quicksy.im");
+
+    @Test
+    public void fingerprintIgnoresOrderAndDuplicates() {
+        assertEquals(
+                ResultCache.key(USER, Arrays.asList("+15555550101", "+15555550102")),
+                ResultCache.key(
+                        USER, Arrays.asList("+15555550102", "+15555550101", "+15555550102")));
+        assertFalse(
+                ResultCache.key(USER, Collections.singletonList("+15555550101"))
+                        .equals(ResultCache.key(USER, Collections.singletonList("+15555550102"))));
+    }
+
+    @Test
+    public void staleGenerationIsAMiss() {
+        final ResultCache cache = new ResultCache(10, Duration.ofMinutes(1));
+        final ResultCache.Key key =
+                ResultCache.key(USER, Collections.singletonList("+15555550101"));
+        assertNull(cache.get(key, 1));
+        cache.put(key, new ResultCache.Result(1, 7, "ver", Collections.emptyList()));
+        assertEquals("ver", cache.get(key, 1).getVer());
+        assertEquals(7, cache.get(key, 1).getSequence());
+        assertNull(cache.get(key, 2));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+}
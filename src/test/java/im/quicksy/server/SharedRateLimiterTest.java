@@ -0,0 +1,100 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.configuration.DatabaseConfiguration;
+import im.quicksy.server.configuration.DatabaseConfigurationBundle;
+import im.quicksy.server.database.Database;
+import im.quicksy.server.throttle.CounterStore;
+import im.quicksy.server.throttle.RateLimiter;
+import im.quicksy.server.throttle.SharedCounters;
+import im.quicksy.server.throttle.Strategy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class SharedRateLimiterTest {
+
+    private static final String JDBC_URL = "jdbc:sqlite::memory:";
+
+    private static final DatabaseConfigurationBundle IN_MEMORY_DATABASE_CONFIGURATION =
+            new DatabaseConfigurationBundle.Builder()
+                    .setEjabberdConfiguration(
+                            new DatabaseConfiguration.Builder().setUrl(JDBC_URL).build())
+                    .setQuicksyConfiguration(
+                            new DatabaseConfiguration.Builder().setUrl(JDBC_URL).build())
+                    .build();
+
+    private static final Strategy STRATEGY = Strategy.of(Duration.ofDays(1), 2);
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void attemptsAreSharedBetweenNodes() throws RateLimiter.RetryInException {
+        final CounterStore store = new Database(IN_MEMORY_DATABASE_CONFIGURATION).getCounterStore();
+        final SharedCounters first = new SharedCounters(store, Duration.ofHours(1));
+        final SharedCounters second = new SharedCounters(store, Duration.ofHours(1));
+        final RateLimiter<String> firstNode = RateLimiter.of("test", 100, first, STRATEGY);
+        final RateLimiter<String> secondNode = RateLimiter.of("test", 100, second, STRATEGY);
+        firstNode.attempt("a");
+        firstNode.attempt("b");
+        first.flush();
+        secondNode.attempt("a");
+        second.flush();
+        secondNode.attempt("b");
+        expectedException.expect(RateLimiter.RetryInException.class);
+        secondNode.attempt("a");
+    }
+
+    @Test
+    public void upsertAddsUp() {
+        final CounterStore store = new Database(IN_MEMORY_DATABASE_CONFIGURATION).getCounterStore();
+        final List<CounterStore.Increment> increment =
+                Collections.singletonList(new CounterStore.Increment("test", "a", 1000, 0, 3));
+        assertEquals(3, store.add(increment)[0]);
+        assertEquals(6, store.add(increment)[0]);
+        store.purge(1001);
+        assertEquals(3, store.add(increment)[0]);
+    }
+
+    @Test
+    public void repeatedCountersAcrossStatements() {
+        final CounterStore store = new Database(IN_MEMORY_DATABASE_CONFIGURATION).getCounterStore();
+        final List<CounterStore.Increment> increments = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            increments.add(new CounterStore.Increment("test", "e" + (i % 150), 1000, 0, 1));
+        }
+        increments.add(new CounterStore.Increment("other", "e0", 1000, 0, 5));
+        final long[] totals = store.add(increments);
+        for (int i = 0; i < 300; ++i) {
+            assertEquals(2, totals[i]);
+        }
+        assertEquals(5, totals[300]);
+    }
+
+    @Test
+    public void keepIncrementsWhenStoreFails() throws RateLimiter.RetryInException {
+        final CounterStore failing =
+                new CounterStore() {
+                    @Override
+                    public long[] add(final List<Increment> increments) {
+                        throw new IllegalStateException();
+                    }
+
+                    @Override
+                    public void purge(final long now) {}
+                };
+        final SharedCounters counters = new SharedCounters(failing, Duration.ofHours(1));
+        final RateLimiter<String> limiter = RateLimiter.of("test", 100, counters, STRATEGY);
+        limiter.attempt("a");
+        counters.flush();
+        final RateLimiter<String> sameNode = RateLimiter.of("test", 100, counters, STRATEGY);
+        sameNode.attempt("a");
+        expectedException.expect(RateLimiter.RetryInException.class);
+        sameNode.attempt("a");
+    }
+}
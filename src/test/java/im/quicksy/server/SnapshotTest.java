@@ -0,0 +1,150 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.synchronization.Snapshot;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class SnapshotTest {
+
+    private static final Jid OWNER = Jid.of("+15555550100@quicksy.im");
+
+    @Test
+    public void emptyBase() {
+        final Snapshot empty = Snapshot.empty(OWNER);
+        assertEquals(OWNER, empty.getOwner());
+        assertEquals(0, empty.size());
+        assertNull(empty.getVer());
+        assertEquals(-1, empty.getSequence());
+        assertEquals(Collections.emptyList(), empty.difference(empty));
+        final Snapshot snapshot =
+                empty.apply(
+                        Arrays.asList("+15555550102", "15555550103", null, "+15555550101"),
+                        Collections.emptyList());
+        assertEquals(Arrays.asList("+15555550101", "+15555550102"), snapshot.getPhoneNumbers());
+        assertEquals(Collections.emptyList(), empty.difference(snapshot));
+    }
+
+    @Test
+    public void add() {
+        final Snapshot previous =
+                Snapshot.empty(OWNER)
+                        .apply(
+                                Arrays.asList("+15555550101", "+15555550103"),
+                                Collections.emptyList());
+        final Snapshot snapshot =
+                previous.apply(
+                        Arrays.asList("+15555550104", "+15555550102", "+15555550101"),
+                        Collections.emptyList());
+        assertEquals(4, snapshot.size());
+        assertTrue(
+                Arrays.equals(
+                        new long[] {15555550101L, 15555550102L, 15555550103L, 15555550104L},
+                        snapshot.getPhoneNumberKeys()));
+        assertEquals(Arrays.asList("+15555550102", "+15555550104"), snapshot.difference(previous));
+        assertEquals(Collections.emptyList(), previous.difference(snapshot));
+    }
+
+    @Test
+    public void remove() {
+        final Snapshot previous =
+                Snapshot.empty(OWNER)
+                        .apply(
+                                Arrays.asList("+15555550101", "+15555550102", "+15555550103"),
+                                Collections.emptyList());
+        final Snapshot snapshot =
+                previous.apply(
+                        Collections.singletonList("+15555550104"),
+                        Arrays.asList("+15555550102", "+15555550104", "+15555550105"));
+        assertEquals(Arrays.asList("+15555550101", "+15555550103"), snapshot.getPhoneNumbers());
+        assertFalse(snapshot.contains(15555550102L));
+        assertEquals(Collections.emptyList(), snapshot.difference(previous));
+        assertEquals(Collections.singletonList("+15555550102"), previous.difference(snapshot));
+    }
+
+    @Test
+    public void unchanged() {
+        final Snapshot previous =
+                Snapshot.empty(OWNER)
+                        .apply(
+                                Arrays.asList("+15555550101", "+15555550102"),
+                                Collections.emptyList())
+                        .withResult("abc", 7);
+        final Snapshot snapshot = previous.apply(Collections.emptyList(), Collections.emptyList());
+        assertTrue(Arrays.equals(previous.getPhoneNumberKeys(), snapshot.getPhoneNumberKeys()));
+        assertEquals(Collections.emptyList(), snapshot.difference(previous));
+        assertEquals(Collections.emptyList(), previous.difference(snapshot));
+        // the result has yet to be computed for the new snapshot
+        assertNull(snapshot.getVer());
+        assertEquals(-1, snapshot.getSequence());
+    }
+
+    @Test
+    public void verMismatch() {
+        final Snapshot snapshot =
+                Snapshot.empty(OWNER)
+                        .apply(Collections.singletonList("+15555550101"), Collections.emptyList())
+                        .withResult("abc", 7);
+        assertEquals("abc", snapshot.getVer());
+        assertEquals(7, snapshot.getSequence());
+        assertTrue(snapshot.hasVer("abc"));
+        assertFalse(snapshot.hasVer("abd"));
+        assertFalse(snapshot.hasVer(null));
+        assertFalse(Snapshot.empty(OWNER).hasVer(null));
+    }
+
+    @Test
+    public void changedEntriesWithinTheSnapshot() {
+        final Snapshot snapshot = threeNumbers();
+        final List<Entry> entries = Arrays.asList(entry("+15555550101"), entry("+15555550103"));
+        final List<Entry> changed =
+                snapshot.changedEntries(
+                        entries,
+                        new long[] {15555550102L, 15555550103L, 15555550109L},
+                        Collections.emptyList());
+        assertEquals(2, changed.size());
+        // no longer registered; sent without jids so the client drops it
+        assertEquals("+15555550102", changed.get(0).getNumber());
+        assertTrue(changed.get(0).getJids().isEmpty());
+        assertSame(entries.get(1), changed.get(1));
+    }
+
+    @Test
+    public void changedEntriesIncludeAddedNumbersOnce() {
+        final Snapshot snapshot = threeNumbers();
+        final List<Entry> entries = Arrays.asList(entry("+15555550101"), entry("+15555550103"));
+        final List<Entry> changed =
+                snapshot.changedEntries(
+                        entries,
+                        new long[] {15555550103L},
+                        Arrays.asList("+15555550101", "+15555550102", "+15555550103"));
+        assertEquals(2, changed.size());
+        assertSame(entries.get(1), changed.get(0));
+        assertSame(entries.get(0), changed.get(1));
+    }
+
+    @Test
+    public void noChangedEntries() {
+        final List<Entry> entries = Collections.singletonList(entry("+15555550101"));
+        assertTrue(
+                threeNumbers()
+                        .changedEntries(entries, new long[0], Collections.emptyList())
+                        .isEmpty());
+    }
+
+    private static Snapshot threeNumbers() {
+        return Snapshot.empty(OWNER)
+                .apply(
+                        Arrays.asList("+15555550101", "+15555550102", "+15555550103"),
+                        Collections.emptyList());
+    }
+
+    private static Entry entry(final String phoneNumber) {
+        return new Entry(phoneNumber, Jid.of(phoneNumber, "quicksy.im", null));
+    }
+}
@@ -0,0 +1,44 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class StatusQuoTest {
+
+    @Test
+    public void emptyPhoneBook() {
+        assertEquals("2jmj7l5rSw0yVb/vlWAYkK/YBwk=", Entry.statusQuo(new ArrayList<>()));
+    }
+
+    @Test
+    public void sortedAndSeparated() {
+        final Entry directory = new Entry("+15555550001");
+        directory.addJid(Jid.of("b@example.com"));
+        directory.addJid(Jid.of("a@example.com"));
+        final Entry quicksy = new Entry("+15555550100");
+        quicksy.addJid(Jid.of("c@quicksy.im/resource"));
+        quicksy.addJid(Jid.of("+15555550100@quicksy.im"));
+        final List<Entry> entries = new ArrayList<>(Arrays.asList(quicksy, directory));
+        assertEquals("oWAYYhiHD3rYNYGn/yAIK0Ediu8=", Entry.statusQuo(entries));
+        assertEquals(Arrays.asList(directory, quicksy), entries);
+    }
+
+    @Test
+    public void repeatedHashingIsStable() {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 2048; ++i) {
+            entries.add(new Entry("+1555555" + (1000 + i), Jid.of("user" + i + "@example.com")));
+        }
+        Collections.shuffle(entries);
+        final String hash = Entry.statusQuo(entries);
+        Collections.shuffle(entries);
+        assertEquals(hash, Entry.statusQuo(entries));
+    }
+}
@@ -0,0 +1,83 @@
+package im.quicksy.server;
+
+import static junit.framework.TestCase.*;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.GsonBuilder;
+import im.quicksy.server.configuration.Configuration;
+import im.quicksy.server.json.DurationDeserializer;
+import im.quicksy.server.throttle.Strategy;
+import java.time.Duration;
+import org.junit.Test;
+
+public class ThrottleConfigurationTest {
+
+    private static final Strategy DEFAULT = Strategy.of(Duration.ofDays(1), 2048);
+
+    @Test
+    public void noLimits() {
+        final Configuration.Throttle throttle = throttle("{}");
+        assertTrue(throttle.check());
+        assertSame(DEFAULT, throttle.getStrategy("synchronization_phone_numbers", DEFAULT));
+    }
+
+    @Test
+    public void configuredLimits() {
+        final Configuration.Throttle throttle =
+                throttle(
+                        "{'limits': {'authentication_ip': [{'duration': 'PT5M', 'attempts': 5},"
+                                + " {'duration': 'PT1H', 'attempts': 10, 'kind': 'gcra'}],"
+                                + " 'synchronization_phone_numbers': [{'duration': 'PT12H',"
+                                + " 'attempts': 1000}]}}");
+        assertTrue(throttle.check());
+        assertEquals(2, throttle.getStrategies("authentication_ip", DEFAULT).length);
+        final Strategy strategy = throttle.getStrategy("synchronization_phone_numbers", DEFAULT);
+        assertEquals(Duration.ofHours(12), strategy.getDuration());
+        assertEquals(1000, strategy.getAttempts());
+    }
+
+    @Test
+    public void invalidLimits() {
+        assertFalse(throttle("{'limits': {'password_ip': [null]}}").check());
+        assertFalse(throttle("{'limits': {'password_ip': null}}").check());
+        assertFalse(
+                throttle("{'limits': {'password_ip': [{'duration': 'PT5M', 'attempts': 0}]}}")
+                        .check());
+        assertFalse(throttle("{'limits': {'password_ip': [{'attempts': 5}]}}").check());
+        assertFalse(
+                throttle(
+                                "{'limits': {'password_ip': [{'duration': 'PT5M', 'attempts': 5,"
+                                        + " 'kind': 'leaky'}]}}")
+                        .check());
+    }
+
+    @Test
+    public void unknownLimiter() {
+        assertFalse(
+                throttle("{'limits': {'pasword_ip': [{'duration': 'PT5M', 'attempts': 5}]}}")
+                        .check());
+    }
+
+    @Test
+    public void phoneNumbersTakeASingleWindow() {
+        assertFalse(
+                throttle(
+                                "{'limits': {'synchronization_phone_numbers': [{'duration':"
+                                        + " 'PT12H', 'attempts': 1000, 'kind': 'gcra'}]}}")
+                        .check());
+        assertFalse(
+                throttle(
+                                "{'limits': {'synchronization_phone_numbers': [{'duration':"
+                                        + " 'PT12H', 'attempts': 1000}, {'duration': 'P1D',"
+                                        + " 'attempts': 1500}]}}")
+                        .check());
+    }
+
+    private static Configuration.Throttle throttle(final String json) {
+        return new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+                .registerTypeAdapter(Duration.class, new DurationDeserializer())
+                .create()
+                .fromJson(json, Configuration.Throttle.class);
+    }
+}
@@ -1,5 +1,7 @@
 package im.quicksy.server;
 
+import static junit.framework.TestCase.*;
+
 import im.quicksy.server.throttle.Strategy;
 import im.quicksy.server.throttle.VolumeLimiter;
 import java.time.Duration;
@@ -52,6 +54,20 @@ public class VolumeRateLimiterTest {
         volumeLimiter.attempt(person, Arrays.asList("6", "7"));
     }
 
+    @Test
+    public void loweredLimitKeepsCharges() throws VolumeLimiter.RetryInException {
+        VolumeLimiter<Jid, String> volumeLimiter =
+                new VolumeLimiter<>(Strategy.of(Duration.ofHours(1), 5));
+        Jid person = Jid.of("person@a.com");
+        volumeLimiter.attempt(person, Arrays.asList("1", "2", "3"));
+        volumeLimiter.setStrategy(Strategy.of(Duration.ofHours(2), 4));
+        assertEquals(4, volumeLimiter.getStrategy().getAttempts());
+        volumeLimiter.attempt(person, Collections.singletonList("4"));
+
+        expectedException.expect(VolumeLimiter.RetryInException.class);
+        volumeLimiter.attempt(person, Collections.singletonList("5"));
+    }
+
     @Test
     public void expiry() throws VolumeLimiter.RetryInException, InterruptedException {
         VolumeLimiter<Jid, String> volumeLimiter =
@@ -68,6 +84,21 @@ public class VolumeRateLimiterTest {
         volumeLimiter.attempt(personB, Arrays.asList("e", "f", "g", "h", "i"));
     }
 
+    @Test
+    public void frequentChargesStillExpire()
+            throws VolumeLimiter.RetryInException, InterruptedException {
+        // buckets span 20ms; one charge every 10ms fits about 130 into any window
+        final Duration duration = Duration.ofMillis(1280);
+        VolumeLimiter<Jid, String> volumeLimiter =
+                new VolumeLimiter<>(Strategy.of(duration, 200));
+        Jid person = Jid.of("person@a.com");
+        final long end = System.nanoTime() + duration.multipliedBy(3).toNanos();
+        for (int i = 0; System.nanoTime() < end; ++i) {
+            volumeLimiter.attempt(person, Collections.singletonList(String.valueOf(i)));
+            Thread.sleep(10);
+        }
+    }
+
     @Test
     public void rollingTooFast() throws VolumeLimiter.RetryInException, InterruptedException {
         expectedException.expect(VolumeLimiter.RetryInException.class);
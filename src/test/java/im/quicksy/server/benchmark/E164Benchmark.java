@@ -0,0 +1,75 @@
+package im.quicksy.server.benchmark;
+
+import im.quicksy.server.utils.E164;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link E164#isValid(CharSequence)} with the regular expression it replaced on a phone
+ * book worth of numbers, one in ten of them malformed. Run like {@link StatusQuoBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class E164Benchmark {
+
+    private static final Pattern E164_PATTERN = Pattern.compile("^\\+?[1-9]\\d{1,14}$");
+
+    private String[] phoneNumbers;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random random = new Random(42);
+        phoneNumbers = new String[2048];
+        for (int i = 0; i < phoneNumbers.length; ++i) {
+            final String phoneNumber = "+49151" + (10_000_000 + random.nextInt(90_000_000));
+            phoneNumbers[i] = random.nextInt(10) == 0 ? phoneNumber + "x" : phoneNumber;
+        }
+    }
+
+    @Benchmark
+    public void scanner(final Blackhole blackhole) {
+        for (final String phoneNumber : phoneNumbers) {
+            blackhole.consume(E164.isValid(phoneNumber));
+        }
+    }
+
+    @Benchmark
+    public void regularExpression(final Blackhole blackhole) {
+        for (final String phoneNumber : phoneNumbers) {
+            blackhole.consume(E164_PATTERN.matcher(phoneNumber).matches());
+        }
+    }
+
+    @Benchmark
+    public long pack() {
+        long sum = 0;
+        for (final String phoneNumber : phoneNumbers) {
+            sum += E164.pack(phoneNumber);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(E164Benchmark.class.getSimpleName()).build()).run();
+    }
+}
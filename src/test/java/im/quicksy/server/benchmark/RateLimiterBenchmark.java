@@ -0,0 +1,148 @@
+package im.quicksy.server.benchmark;
+
+import im.quicksy.server.throttle.RateLimiter;
+import im.quicksy.server.throttle.Strategy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link RateLimiter} with the single lock, single list implementation it replaced under
+ * contention, using the strategies of the per IP limit of the authentication API. {@link
+ * #main(String[])} runs every benchmark with 1, 2, 4 and 8 threads; throughput of the striped
+ * limiter should grow with the number of threads while the synchronized one stays flat. {@link
+ * #gcra()} shows what the lock free path of a single GCRA strategy adds on top.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+
+    @Param({"1024", "65536"})
+    public int entities;
+
+    private Integer[] keys;
+    private RateLimiter<Integer> striped;
+    private RateLimiter<Integer> gcra;
+    private SynchronizedRateLimiter legacy;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        keys = new Integer[entities];
+        for (int i = 0; i < entities; ++i) {
+            keys[i] = i;
+        }
+        striped = RateLimiter.of(strategies());
+        gcra = RateLimiter.of(Strategy.gcra(Duration.ofMinutes(5), 5));
+        legacy = new SynchronizedRateLimiter(strategies());
+    }
+
+    private static Strategy[] strategies() {
+        return new Strategy[] {
+            Strategy.of(Duration.ofDays(1), 100), Strategy.of(Duration.ofMinutes(5), 5)
+        };
+    }
+
+    private Integer key() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    @Benchmark
+    public boolean striped() {
+        try {
+            striped.attempt(key());
+            return true;
+        } catch (RateLimiter.RetryInException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean gcra() {
+        try {
+            gcra.attempt(key());
+            return true;
+        } catch (RateLimiter.RetryInException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean synchronizedList() {
+        return legacy.attempt(key());
+    }
+
+    /** The previous implementation: one list of attempts per strategy, scanned on every call. */
+    private static class SynchronizedRateLimiter {
+        private final HashMap<Strategy, LinkedList<Attempt>> storage = new HashMap<>();
+        private final Strategy[] strategies;
+
+        private SynchronizedRateLimiter(final Strategy[] strategies) {
+            this.strategies = strategies;
+        }
+
+        private synchronized boolean attempt(final Object entity) {
+            final long now = System.nanoTime();
+            for (final Strategy strategy : strategies) {
+                final Iterator<Attempt> iterator =
+                        storage.computeIfAbsent(strategy, k -> new LinkedList<>()).iterator();
+                int count = 0;
+                while (iterator.hasNext()) {
+                    final Attempt attempt = iterator.next();
+                    if (attempt.expires <= now) {
+                        iterator.remove();
+                    } else if (entity.equals(attempt.entity) && ++count >= strategy.getAttempts()) {
+                        return false;
+                    }
+                }
+            }
+            for (final Strategy strategy : strategies) {
+                storage.get(strategy)
+                        .addLast(new Attempt(entity, now + strategy.getDuration().toNanos()));
+            }
+            return true;
+        }
+    }
+
+    private static class Attempt {
+        private final Object entity;
+        private final long expires;
+
+        private Attempt(final Object entity, final long expires) {
+            this.entity = entity;
+            this.expires = expires;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (final int threads : new int[] {1, 2, 4, 8}) {
+            new Runner(
+                            new OptionsBuilder()
+                                    .include(RateLimiterBenchmark.class.getSimpleName())
+                                    .threads(threads)
+                                    .build())
+                    .run();
+        }
+    }
+}
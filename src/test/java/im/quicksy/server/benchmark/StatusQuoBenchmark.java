@@ -0,0 +1,102 @@
+package im.quicksy.server.benchmark;
+
+import com.google.common.io.BaseEncoding;
+import im.quicksy.server.xmpp.synchronization.Entry;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import rocks.xmpp.addr.Jid;
+
+/**
+ * Compares {@link Entry#statusQuo(List)} with the StringBuilder based implementation it replaced.
+ * Run with {@code mvn test-compile} followed by executing {@link #main(String[])} on the test
+ * classpath; add {@code -prof gc} to the options to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StatusQuoBenchmark {
+
+    @Param({"100", "500", "2048"})
+    public int size;
+
+    private List<Entry> entries;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random random = new Random(42);
+        entries = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            final String phoneNumber = "+49151" + (10_000_000 + random.nextInt(90_000_000));
+            final Entry entry = new Entry(phoneNumber);
+            entry.addJid(Jid.of(phoneNumber, "quicksy.im", null));
+            if (random.nextInt(10) == 0) {
+                entry.addJid(Jid.of("user" + i + "@example.com"));
+            }
+            entries.add(entry);
+        }
+    }
+
+    @Benchmark
+    public String streaming() {
+        return Entry.statusQuo(entries);
+    }
+
+    @Benchmark
+    public String stringBuilder() {
+        return legacyStatusQuo(entries);
+    }
+
+    private static String legacyStatusQuo(final List<Entry> entries) {
+        Collections.sort(entries);
+        StringBuilder builder = new StringBuilder();
+        for (Entry entry : entries) {
+            if (builder.length() != 0) {
+                builder.append('\u001d');
+            }
+            builder.append(entry.getNumber());
+            List<Jid> jids = entry.getJids();
+            Collections.sort(jids);
+            for (Jid jid : jids) {
+                builder.append('\u001e');
+                builder.append(jid.asBareJid().toEscapedString());
+            }
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return BaseEncoding.base64().encode(md.digest(builder.toString().getBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            return "";
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(StatusQuoBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
@@ -0,0 +1,140 @@
+package im.quicksy.server.benchmark;
+
+import im.quicksy.server.throttle.Strategy;
+import im.quicksy.server.throttle.VolumeLimiter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link VolumeLimiter} with the single list implementation it replaced. Every user has
+ * synchronized their phone book once; the benchmark measures the common case of a user
+ * synchronizing the same phone book again. Run {@link #main(String[])} on the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VolumeLimiterBenchmark {
+
+    private static final Strategy STRATEGY = Strategy.of(Duration.ofDays(1), 2048);
+
+    @Param({"1000", "10000"})
+    public int users;
+
+    @Param({"100", "500"})
+    public int phoneBookSize;
+
+    private long[][] phoneBooks;
+    private List<List<Long>> boxedPhoneBooks;
+    private VolumeLimiter<Integer, Long> indexed;
+    private ListVolumeLimiter legacy;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws VolumeLimiter.RetryInException {
+        final Random random = new Random(42);
+        phoneBooks = new long[users][phoneBookSize];
+        boxedPhoneBooks = new ArrayList<>(users);
+        indexed = new VolumeLimiter<>(STRATEGY, Long::longValue);
+        legacy = new ListVolumeLimiter();
+        for (int user = 0; user < users; ++user) {
+            final List<Long> boxed = new ArrayList<>(phoneBookSize);
+            for (int i = 0; i < phoneBookSize; ++i) {
+                phoneBooks[user][i] = random.nextLong();
+                boxed.add(phoneBooks[user][i]);
+            }
+            boxedPhoneBooks.add(boxed);
+            indexed.attempt(user, phoneBooks[user]);
+            legacy.attempt(user, boxed);
+        }
+    }
+
+    private int user() {
+        next = (next + 1) % users;
+        return next;
+    }
+
+    @Benchmark
+    public int indexed() throws VolumeLimiter.RetryInException {
+        final int user = user();
+        indexed.attempt(user, phoneBooks[user]);
+        return user;
+    }
+
+    @Benchmark
+    public boolean list() {
+        final int user = user();
+        return legacy.attempt(user, boxedPhoneBooks.get(user));
+    }
+
+    /** The previous implementation: one list of attempts of all users, scanned on every call. */
+    private static class ListVolumeLimiter {
+        private final LinkedList<Attempt> attempts = new LinkedList<>();
+
+        private synchronized boolean attempt(final Integer who, final List<Long> whats) {
+            final List<Long> remaining = new ArrayList<>(whats);
+            final long now = System.nanoTime();
+            final Iterator<Attempt> iterator = attempts.iterator();
+            int whatsCount = 0;
+            while (iterator.hasNext()) {
+                final Attempt attempt = iterator.next();
+                if (attempt.expires <= now) {
+                    iterator.remove();
+                } else if (who.equals(attempt.who)) {
+                    whatsCount += attempt.whats.size();
+                    remaining.removeAll(attempt.whats);
+                    if (remaining.size() == 0) {
+                        return true;
+                    }
+                }
+            }
+            if (whatsCount + remaining.size() > STRATEGY.getAttempts()) {
+                return false;
+            }
+            attempts.push(new Attempt(who, remaining, STRATEGY.getDuration().toNanos() + now));
+            return true;
+        }
+    }
+
+    private static class Attempt {
+        private final Integer who;
+        private final List<Long> whats;
+        private final long expires;
+
+        private Attempt(final Integer who, final List<Long> whats, final long expires) {
+            this.who = who;
+            this.whats = whats;
+            this.expires = expires;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(VolumeLimiterBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
@@ -0,0 +1,36 @@
+package im.quicksy.server.database;
+
+import static junit.framework.TestCase.*;
+
+import org.junit.Test;
+
+public class DatabaseCounterStoreTest {
+
+    @Test
+    public void dialectFollowsProductName() {
+        assertEquals(Dialect.SQLITE, Dialect.of("SQLite"));
+        assertEquals(Dialect.MARIADB, Dialect.of("MariaDB"));
+        // MariaDB reached through MySQL Connector/J
+        assertEquals(Dialect.MARIADB, Dialect.of("MySQL"));
+    }
+
+    @Test
+    public void mariaDbUpsert() {
+        assertEquals(
+                "insert into throttle_counters(limiter,entity,period,started,attempts,expires)"
+                        + " values(:limiter0,:entity0,:period0,:started0,:delta0,:expires0),"
+                        + "(:limiter1,:entity1,:period1,:started1,:delta1,:expires1)"
+                        + " on duplicate key update attempts=attempts+values(attempts)",
+                DatabaseCounterStore.upsert(Dialect.MARIADB, 2));
+    }
+
+    @Test
+    public void sqliteUpsert() {
+        assertEquals(
+                "insert into throttle_counters(limiter,entity,period,started,attempts,expires)"
+                        + " values(:limiter0,:entity0,:period0,:started0,:delta0,:expires0)"
+                        + " on conflict(limiter,entity,period,started) do update set"
+                        + " attempts=attempts+excluded.attempts",
+                DatabaseCounterStore.upsert(Dialect.SQLITE, 1));
+    }
+}
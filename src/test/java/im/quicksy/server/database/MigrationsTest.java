@@ -0,0 +1,83 @@
+package im.quicksy.server.database;
+
+import static junit.framework.TestCase.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+public class MigrationsTest {
+
+    @Test
+    public void failedMigrationLeavesNoTrace() throws IOException {
+        final Sql2o sql2o = temporaryDatabase();
+        final Migration failing =
+                new Migration() {
+                    @Override
+                    public int getVersion() {
+                        return 2;
+                    }
+
+                    @Override
+                    public String getDescription() {
+                        return "fail halfway";
+                    }
+
+                    @Override
+                    public void apply(final Connection connection) {
+                        connection.createQuery("CREATE TABLE `second` (`id` int)").executeUpdate();
+                        throw new IllegalStateException("failed halfway");
+                    }
+                };
+        try {
+            Migrations.migrate(
+                    sql2o,
+                    Arrays.asList(
+                            Migration.of(1, "first", "CREATE TABLE `first` (`id` int)"),
+                            failing));
+            fail("migration should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals("failed halfway", e.getMessage());
+        }
+        assertEquals(1, Migrations.currentVersion(sql2o));
+        assertTrue(hasTable(sql2o, "first"));
+        assertFalse(hasTable(sql2o, "second"));
+    }
+
+    @Test
+    public void appliedVersionsAreSkipped() throws IOException {
+        final Sql2o sql2o = temporaryDatabase();
+        Migrations.migrate(
+                sql2o, Arrays.asList(Migration.of(1, "first", "CREATE TABLE `first` (`id` int)")));
+        // would fail if it ran again
+        Migrations.migrate(
+                sql2o,
+                Arrays.asList(
+                        Migration.of(1, "first", "CREATE TABLE `first` (`id` int)"),
+                        Migration.of(2, "second", "CREATE TABLE `second` (`id` int)")));
+        assertEquals(2, Migrations.currentVersion(sql2o));
+        assertTrue(hasTable(sql2o, "second"));
+    }
+
+    private static Sql2o temporaryDatabase() throws IOException {
+        final File file = File.createTempFile("quicksy", ".db");
+        file.deleteOnExit();
+        return new Sql2o("jdbc:sqlite:" + file.getAbsolutePath(), null, null);
+    }
+
+    private static boolean hasTable(final Sql2o sql2o, final String table) {
+        try (Connection connection = sql2o.open()) {
+            final Integer count =
+                    connection
+                            .createQuery(
+                                    "select count(*) from sqlite_master where type='table' and"
+                                            + " name=:name")
+                            .addParameter("name", table)
+                            .executeScalar(Integer.class);
+            return count > 0;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package im.quicksy.server.directory;
+
+import static junit.framework.TestCase.*;
+
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ChangeLogTest {
+
+    @Rule public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void emptyLog() {
+        final ChangeLog changeLog = new ChangeLog(4);
+        assertEquals(0, changeLog.head());
+        assertEquals(0, changeLog.since(0).length);
+        assertNull(changeLog.since(1));
+    }
+
+    @Test
+    public void changesAreSortedAndDistinct() {
+        final ChangeLog changeLog = new ChangeLog(8);
+        changeLog.record(3);
+        final long sequence = changeLog.head();
+        changeLog.record(2);
+        changeLog.record(1);
+        changeLog.record(2);
+        assertEquals(4, changeLog.head());
+        assertArrayEquals(new long[] {1, 2}, changeLog.since(sequence));
+        assertArrayEquals(new long[] {1, 2, 3}, changeLog.since(0));
+        assertEquals(0, changeLog.since(changeLog.head()).length);
+    }
+
+    @Test
+    public void wraparound() {
+        final ChangeLog changeLog = new ChangeLog(4);
+        for (long key = 1; key <= 6; ++key) {
+            changeLog.record(key);
+        }
+        assertEquals(6, changeLog.head());
+        assertArrayEquals(new long[] {3, 4, 5, 6}, changeLog.since(2));
+        assertArrayEquals(new long[] {5, 6}, changeLog.since(4));
+    }
+
+    @Test
+    public void sinceOlderThanRetainedWindow() {
+        final ChangeLog changeLog = new ChangeLog(4);
+        for (long key = 1; key <= 6; ++key) {
+            changeLog.record(key);
+        }
+        // null makes the caller fall back to a full synchronization
+        assertNull(changeLog.since(1));
+        assertNull(changeLog.since(0));
+        assertNull(changeLog.since(-1));
+    }
+
+    @Test
+    public void sinceBeforeTruncate() {
+        final ChangeLog changeLog = new ChangeLog(4);
+        changeLog.record(1);
+        changeLog.truncate();
+        changeLog.record(2);
+        assertNull(changeLog.since(0));
+        assertArrayEquals(new long[] {2}, changeLog.since(1));
+    }
+
+    @Test
+    public void capacityMustBePowerOfTwo() {
+        expectedException.expect(IllegalArgumentException.class);
+        new ChangeLog(6);
+    }
+
+    private static void assertArrayEquals(final long[] expected, final long[] actual) {
+        assertNotNull(actual);
+        assertTrue(Arrays.toString(actual), Arrays.equals(expected, actual));
+    }
+}
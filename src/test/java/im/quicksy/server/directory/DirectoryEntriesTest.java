@@ -0,0 +1,69 @@
+package im.quicksy.server.directory;
+
+import static junit.framework.TestCase.*;
+
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class DirectoryEntriesTest {
+
+    @Test
+    public void putGetRemove() {
+        final DirectoryEntries entries = new DirectoryEntries();
+        final Jid jid = Jid.of("test@example.com");
+        assertEquals(0, entries.get(jid));
+        entries.put(jid, 15555550100L);
+        entries.put(jid, 15555550101L);
+        assertEquals(1, entries.size());
+        assertEquals(15555550101L, entries.get(jid));
+        assertEquals(15555550101L, entries.remove(jid));
+        assertEquals(0, entries.remove(jid));
+        assertEquals(0, entries.size());
+    }
+
+    @Test
+    public void collidingHashCodes() {
+        // "a~" and "b_" have the same String.hashCode()
+        final Jid a = Jid.of("a~@example.com");
+        final Jid b = Jid.of("b_@example.com");
+        final Jid c = Jid.of("c@example.com");
+        assertEquals(a.hashCode(), b.hashCode());
+        final DirectoryEntries entries = new DirectoryEntries();
+        entries.put(a, 15555550100L);
+        entries.put(b, 15555550101L);
+        entries.put(c, 15555550102L);
+        assertEquals(15555550100L, entries.get(a));
+        assertEquals(15555550101L, entries.get(b));
+        // moves c into the row of b
+        assertEquals(15555550101L, entries.remove(b));
+        assertEquals(15555550100L, entries.get(a));
+        assertEquals(15555550102L, entries.get(c));
+        entries.put(b, 15555550103L);
+        // moves b into the row of a
+        assertEquals(15555550100L, entries.remove(a));
+        assertEquals(15555550103L, entries.get(b));
+        assertEquals(15555550102L, entries.get(c));
+        assertEquals(0, entries.get(a));
+    }
+
+    @Test
+    public void entriesSurviveRemovalOfOthers() {
+        // enough jids for some of their 32 bit hash codes to collide
+        final int count = 300_000;
+        final DirectoryEntries entries = new DirectoryEntries();
+        for (int i = 0; i < count; ++i) {
+            entries.put(jid(i), 15555550000L + i);
+        }
+        for (int i = 0; i < count; i += 2) {
+            assertEquals(15555550000L + i, entries.remove(jid(i)));
+        }
+        assertEquals(count / 2, entries.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i % 2 == 0 ? 0 : 15555550000L + i, entries.get(jid(i)));
+        }
+    }
+
+    private static Jid jid(final int i) {
+        return Jid.of("user" + i + "@example.com");
+    }
+}
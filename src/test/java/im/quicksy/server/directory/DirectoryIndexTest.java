@@ -0,0 +1,113 @@
+package im.quicksy.server.directory;
+
+import static junit.framework.TestCase.*;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import im.quicksy.server.pojo.Entry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class DirectoryIndexTest {
+
+    private static final String DOMAIN = "quicksy.im";
+
+    private DirectoryIndex index;
+
+    @Before
+    public void createIndex() {
+        index = new DirectoryIndex();
+    }
+
+    @Test
+    public void packPhoneNumbers() {
+        assertEquals(4915123456789L, DirectoryIndex.key("+4915123456789"));
+        assertEquals(0, DirectoryIndex.key("4915123456789"));
+        assertEquals(0, DirectoryIndex.key("+04915123456789"));
+        assertEquals(0, DirectoryIndex.key("+49151234a6789"));
+        assertEquals(0, DirectoryIndex.key("+1234567890123456"));
+    }
+
+    @Test
+    public void accountsAreFoundUntilRemoved() {
+        index.accountCreated("+15555550100");
+        final List<im.quicksy.server.xmpp.synchronization.Entry> entries =
+                index.find(
+                        DOMAIN, Arrays.asList("+15555550100", "+15555550101", "+15555550100"));
+        assertEquals(1, entries.size());
+        assertEquals(
+                Collections.singletonList(Jid.of("+15555550100", DOMAIN, null)),
+                entries.get(0).getJids());
+        index.accountRemoved("+15555550100");
+        assertEquals(0, index.find(DOMAIN, Collections.singletonList("+15555550100")).size());
+    }
+
+    @Test
+    public void hashedLookupsFollowAccounts() {
+        final long first = PhoneNumberHash.of("+15555550400");
+        final long second = PhoneNumberHash.of("+15555550401");
+        index.accountCreated("+15555550400");
+        assertEquals(1, index.findHashed(DOMAIN, new long[] {first, second}).size());
+        index.accountCreated("+15555550401");
+        index.accountRemoved("+15555550400");
+        final List<im.quicksy.server.xmpp.synchronization.Entry> entries =
+                index.findHashed(DOMAIN, new long[] {first, second});
+        assertEquals(1, entries.size());
+        assertEquals(PhoneNumberHash.encode(second), entries.get(0).getNumber());
+    }
+
+    @Test
+    public void directoryEntriesFollowVerification() throws NumberParseException {
+        final Jid jid = Jid.of("test@example.com");
+        final Entry entry = new Entry(jid);
+        entry.setPhoneNumber(PhoneNumberUtil.getInstance().parse("+15555550200", "us"));
+        index.entryUpdated(entry);
+        assertEquals(0, index.find(DOMAIN, Collections.singletonList("+15555550200")).size());
+
+        entry.setVerified(true);
+        index.entryUpdated(entry);
+        index.accountCreated("+15555550200");
+        final List<im.quicksy.server.xmpp.synchronization.Entry> entries =
+                index.find(DOMAIN, Collections.singletonList("+15555550200"));
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).getJids().size());
+        assertTrue(entries.get(0).getJids().contains(jid));
+
+        entry.setPhoneNumber(PhoneNumberUtil.getInstance().parse("+15555550201", "us"));
+        index.entryUpdated(entry);
+        final List<im.quicksy.server.xmpp.synchronization.Entry> moved =
+                index.find(DOMAIN, Arrays.asList("+15555550200", "+15555550201"));
+        assertEquals(2, moved.size());
+        for (im.quicksy.server.xmpp.synchronization.Entry e : moved) {
+            assertEquals(1, e.getJids().size());
+        }
+
+        index.entryDeleted(jid);
+        assertEquals(0, index.find(DOMAIN, Collections.singletonList("+15555550201")).size());
+    }
+
+    @Test
+    public void invalidateChangesGeneration() {
+        final long generation = index.getGeneration();
+        index.invalidate();
+        assertTrue(index.getGeneration() != generation);
+    }
+
+    @Test
+    public void mutationsAreIgnoredWhenDisabled() {
+        index.accountCreated("+15555550300");
+        index.setEnabled(false);
+        assertEquals(0, index.find(DOMAIN, Collections.singletonList("+15555550300")).size());
+        final long generation = index.getGeneration();
+        index.accountCreated("+15555550301");
+        assertTrue(index.getGeneration() != generation);
+        assertEquals(0, index.find(DOMAIN, Collections.singletonList("+15555550301")).size());
+        index.setEnabled(true);
+        index.accountCreated("+15555550302");
+        assertEquals(1, index.find(DOMAIN, Collections.singletonList("+15555550302")).size());
+    }
+}
@@ -0,0 +1,63 @@
+package im.quicksy.server.directory;
+
+import static junit.framework.TestCase.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import rocks.xmpp.addr.Jid;
+
+public class PhoneNumberTableTest {
+
+    @Test
+    public void rowsSurviveRemovalOfOthers() {
+        final Random random = new Random(7);
+        final PhoneNumberTable table = new PhoneNumberTable(0);
+        final Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 20_000; ++i) {
+            if (i == 10_000) {
+                assertFalse(table.hasHashIndex());
+                table.indexHashes();
+            }
+            final long key = 15555550000L + random.nextInt(2_000);
+            final boolean account = random.nextBoolean();
+            table.setAccount(key, account);
+            if (account) {
+                expected.add(key);
+            } else {
+                expected.remove(key);
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (long key = 15555550000L; key < 15555552000L; ++key) {
+            final int slot = table.slot(key);
+            assertEquals(expected.contains(key), slot >= 0);
+            final long hash = PhoneNumberHash.of(key);
+            assertEquals(expected.contains(key) ? key : 0, table.keyForHash(hash));
+            if (slot >= 0) {
+                assertTrue(table.hasAccount(slot));
+            }
+        }
+        final Set<Long> keys = new HashSet<>();
+        table.forEachKey(keys::add);
+        assertEquals(expected, keys);
+    }
+
+    @Test
+    public void rowIsKeptWhileItHasJids() {
+        final PhoneNumberTable table = new PhoneNumberTable(0);
+        final Jid jid = Jid.of("test@example.com");
+        table.setAccount(15555550100L, true);
+        table.addJid(15555550100L, jid);
+        table.setAccount(15555550100L, false);
+        final List<Jid> jids = new ArrayList<>();
+        table.forEachJid(table.slot(15555550100L), jids::add);
+        assertEquals(1, jids.size());
+        table.removeJid(15555550100L, jid);
+        assertTrue(table.slot(15555550100L) < 0);
+        assertEquals(0, table.size());
+    }
+}
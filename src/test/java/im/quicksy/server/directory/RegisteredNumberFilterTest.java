@@ -0,0 +1,100 @@
+package im.quicksy.server.directory;
+
+import static junit.framework.TestCase.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class RegisteredNumberFilterTest {
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    @Test
+    public void everythingMightBeRegisteredBeforeTheFirstRebuild() {
+        final RegisteredNumberFilter filter = new RegisteredNumberFilter();
+        assertFalse(filter.isLoaded());
+        assertTrue(filter.mightContain(15555550100L));
+    }
+
+    @Test
+    public void membership() {
+        final RegisteredNumberFilter filter = new RegisteredNumberFilter();
+        final List<String> phoneNumbers =
+                Arrays.asList("+15555550100", "+15555550101", "15555550102", "+4915123456789");
+        filter.reload(phoneNumbers::forEach, FALSE_POSITIVE_PROBABILITY);
+        assertTrue(filter.isLoaded());
+        assertTrue(filter.mightContain(15555550100L));
+        assertTrue(filter.mightContain(15555550101L));
+        assertTrue(filter.mightContain(4915123456789L));
+        // not in canonical form and never looked up
+        assertFalse(filter.mightContain(15555550102L));
+        assertFalse(filter.mightContain(15555550103L));
+    }
+
+    @Test
+    public void rebuildForgetsRemovedNumbers() {
+        final RegisteredNumberFilter filter = new RegisteredNumberFilter();
+        filter.reload(phoneNumbers -> phoneNumbers.accept("+15555550100"), 0.0001);
+        filter.add(15555550101L);
+        assertTrue(filter.mightContain(15555550100L));
+        assertTrue(filter.mightContain(15555550101L));
+        filter.reload(phoneNumbers -> phoneNumbers.accept("+15555550101"), 0.0001);
+        assertFalse(filter.mightContain(15555550100L));
+        assertTrue(filter.mightContain(15555550101L));
+    }
+
+    @Test
+    public void additionsDuringRebuildAreKept() {
+        final RegisteredNumberFilter filter = new RegisteredNumberFilter();
+        filter.reload(
+                phoneNumbers -> {
+                    phoneNumbers.accept("+15555550100");
+                    filter.add(15555550101L);
+                },
+                FALSE_POSITIVE_PROBABILITY);
+        assertTrue(filter.mightContain(15555550100L));
+        assertTrue(filter.mightContain(15555550101L));
+    }
+
+    @Test
+    public void failedRebuildKeepsFilter() {
+        final RegisteredNumberFilter filter = new RegisteredNumberFilter();
+        filter.reload(phoneNumbers -> phoneNumbers.accept("+15555550100"), 0.0001);
+        try {
+            filter.reload(
+                    phoneNumbers -> {
+                        throw new IllegalStateException("database is gone");
+                    },
+                    FALSE_POSITIVE_PROBABILITY);
+            fail("rebuild should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals("database is gone", e.getMessage());
+        }
+        assertTrue(filter.mightContain(15555550100L));
+        assertFalse(filter.mightContain(15555550101L));
+        filter.reload(phoneNumbers -> phoneNumbers.accept("+15555550101"), 0.0001);
+        assertTrue(filter.mightContain(15555550101L));
+    }
+
+    @Test
+    public void falsePositivesStayNearTheConfiguredProbability() {
+        final RegisteredNumberFilter filter = new RegisteredNumberFilter();
+        filter.reload(
+                phoneNumbers -> {
+                    for (long i = 0; i < 100_000; ++i) {
+                        phoneNumbers.accept("+1555" + (1_000_000 + 2 * i));
+                    }
+                },
+                FALSE_POSITIVE_PROBABILITY);
+        int falsePositives = 0;
+        for (long i = 0; i < 100_000; ++i) {
+            assertTrue(filter.mightContain(15551_000_000L + 2 * i));
+            if (filter.mightContain(15551_000_001L + 2 * i)) {
+                ++falsePositives;
+            }
+        }
+        // sized with headroom for registrations; the actual rate is lower than configured
+        assertTrue(String.valueOf(falsePositives), falsePositives < 100_000 * 0.01);
+    }
+}